@@ -1,5 +1,12 @@
 package main.rice.basegen;
 
+import main.rice.concisegen.TestCostModel;
+import main.rice.metrics.Counter;
+import main.rice.metrics.GenExValsEvent;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.ProgressReporter;
+import main.rice.metrics.RandomBatchEvent;
+import main.rice.metrics.Timer;
 import main.rice.node.APyNode;
 import main.rice.obj.APyObj;
 import main.rice.test.TestCase;
@@ -23,10 +30,71 @@ public class BaseSetGenerator {
     private final int numRand;
 
     /**
-     * The base test set, stored as a field to be accessible to genRandTests().
+     * The base test set, stored as a field to be accessible to genRandTests(); keeps
+     * the order in which test cases were generated.
      */
     private Set<TestCase> baseSet;
 
+    /**
+     * For each parameter, the set of all possible arguments within its exhaustive
+     * domain, or null until first needed.
+     */
+    private List<Set<? extends APyObj>> exArgs;
+
+    /**
+     * The approximate number of bytes that genBaseSet() may use to hold the base test
+     * set, or 0 if there is no limit.
+     */
+    private long heapBudget;
+
+    /**
+     * The approximate number of bytes used to hold a single test case in memory, not
+     * counting its arguments: the TestCase, its argument list, and its entries in the
+     * base set and in the intermediate lists built along the way.
+     */
+    private static final long BYTES_PER_TEST = 256;
+
+    /**
+     * The approximate number of bytes used to hold a single Python object in memory.
+     */
+    private static final long BYTES_PER_OBJ = 32;
+
+    /**
+     * Counts the test cases generated, exhaustive and random.
+     */
+    private Counter casesGenerated;
+
+    /**
+     * Counts the random test cases drawn, including those rejected as duplicates.
+     */
+    private Counter randomDraws;
+
+    /**
+     * Counts the random test cases rejected as duplicates of earlier test cases.
+     */
+    private Counter duplicatesRejected;
+
+    /**
+     * Measures the time spent generating exhaustive test cases.
+     */
+    private Timer exhaustiveTimer;
+
+    /**
+     * Measures the time spent generating random test cases.
+     */
+    private Timer randomTimer;
+
+    /**
+     * Reports the progress of generation.
+     */
+    private ProgressReporter progress;
+
+    /**
+     * The stage of the progress reporter that counts the test cases generated by the
+     * current call to genBaseSet(), iterBaseSet() or genCompactBaseSet().
+     */
+    private ProgressReporter.Stage generation;
+
     /**
      * Constructor for a BaseSetGenerator, which initializes the fields.
      *
@@ -36,25 +104,251 @@ public class BaseSetGenerator {
     public BaseSetGenerator(List<APyNode<?>> nodes, int numRand) {
         this.nodes = nodes;
         this.numRand = numRand;
-        this.baseSet = new HashSet<>();
+        this.baseSet = new LinkedHashSet<>();
+        this.setMetrics(MetricsRegistry.DISABLED);
+        this.setProgress(ProgressReporter.DISABLED);
+        this.generation = ProgressReporter.DISABLED.stage("generate", -1);
+    }
+
+    /**
+     * Seeds every node, so that the random probes (and therefore the order of the base
+     * test set) are the same on every run with the same seed, in any JVM.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        Random seeds = new Random(seed);
+        for (APyNode<?> node : this.nodes) {
+            node.setSeed(seeds.nextLong());
+        }
+    }
+
+    /**
+     * Sets the registry that generation is measured in: the number of test cases
+     * generated (and the rate at which they are), the number of random draws rejected as
+     * duplicates (and the rejection rate), and the time spent generating each kind of
+     * test case.
+     *
+     * @param metrics the metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.casesGenerated = metrics.counter("feat_basegen_cases_total",
+            "Test cases generated");
+        this.randomDraws = metrics.counter("feat_basegen_random_draws_total",
+            "Random test cases drawn, including duplicates");
+        this.duplicatesRejected = metrics.counter("feat_basegen_duplicates_rejected_total",
+            "Random test cases rejected as duplicates");
+        this.exhaustiveTimer = metrics.timer("feat_basegen_exhaustive_seconds",
+            "Time spent generating exhaustive test cases");
+        this.randomTimer = metrics.timer("feat_basegen_random_seconds",
+            "Time spent generating random test cases");
+        Counter cases = this.casesGenerated;
+        Counter draws = this.randomDraws;
+        Counter duplicates = this.duplicatesRejected;
+        Timer exhaustive = this.exhaustiveTimer;
+        Timer random = this.randomTimer;
+        metrics.gauge("feat_basegen_cases_per_second", "Test cases generated per second",
+            () -> MetricsRegistry.ratio(cases.get(),
+                exhaustive.getTotalSeconds() + random.getTotalSeconds()));
+        metrics.gauge("feat_basegen_duplicate_ratio",
+            "Fraction of random draws rejected as duplicates",
+            () -> MetricsRegistry.ratio(duplicates.get(), draws.get()));
+    }
+
+    /**
+     * Sets the reporter that the progress of generation is reported to, as a "generate"
+     * stage whose total is the size of the base test set.
+     *
+     * @param progress the progress reporter
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Sets the approximate number of bytes that genBaseSet() may use to hold the base
+     * test set. If holding the whole base test set would exceed the budget,
+     * genBaseSet() returns a compact base test set instead (see genCompactBaseSet()).
+     *
+     * @param heapBudget the heap budget, in bytes, or 0 for no limit
+     */
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Counts the test cases in the base test set without generating it, e.g. to plan
+     * the progress of a run that consumes iterBaseSet(); only the exhaustive values of
+     * each parameter are generated.
+     *
+     * @return the number of test cases in the base test set, saturating at
+     * Long.MAX_VALUE
+     */
+    public long countBaseSet() {
+        return plannedSize(this.genExArgs(), this.numRand);
     }
 
     /**
      * Generates a the base test set (the union of the semi-exhaustive and random test
      * sets) according to the type and domain specifications in the input list of nodes.
      * Each output test case encapsulates a list of arguments (APyObjs), where the i-th
-     * argument is typified by the i-th element in nodes.
+     * argument is typified by the i-th element in nodes. The exhaustive test cases come
+     * first, in the order of iterBaseSet(), followed by the random probes in the order
+     * they were generated; so the order (and therefore every test case index, and the
+     * concise test set) is the same whether or not the base test set is compact.
      *
      * @return the base test set (as a List, so that we can use indices in the Tester)
+     * @throws IllegalStateException if the base test set is to be compact, but the
+     *                               random probes alone would exceed the heap budget
      */
     public List<TestCase> genBaseSet() {
+        this.generation = this.progress.stage("generate", -1);
+        if (this.heapBudget > 0) {
+            List<Set<? extends APyObj>> possibleArgs = this.genExArgs();
+            if (this.estimateBytes(possibleArgs) > this.heapBudget) {
+                return this.genCompactBaseSet(possibleArgs);
+            }
+        }
+
         this.baseSet = this.genExTests();
         this.genRandTests();
+        this.generation.finish();
 
         // Convert to a list so that we can use indices in testing
         return new ArrayList<>(this.baseSet);
     }
 
+    /**
+     * Lazily generates the same base test set as genBaseSet(), one test case at a time:
+     * first every combination of arguments within the exhaustive domains, then the
+     * random probes that are not among them. Unlike genBaseSet(), never holds the
+     * exhaustive test set in memory; the only test cases retained are the random probes,
+     * so that duplicates among them can be skipped.
+     *
+     * @return an iterator over the base test set
+     */
+    public Iterator<TestCase> iterBaseSet() {
+        // For each parameter, generate the list of all possible arguments
+        List<Set<? extends APyObj>> possibleArgSets = this.genExArgs();
+        List<List<APyObj>> possibleArgs = new ArrayList<>();
+        for (Set<? extends APyObj> args : possibleArgSets) {
+            possibleArgs.add(new ArrayList<>(args));
+        }
+        ProgressReporter.Stage stage = this.progress.stage("generate",
+            plannedSize(possibleArgSets, this.numRand));
+
+        return new Iterator<>() {
+            // The index of the next exhaustive argument for each parameter, or null once
+            // every combination has been produced
+            private int[] positions = initialPositions(possibleArgs);
+            private final Set<TestCase> randSet = new HashSet<>();
+
+            @Override
+            public boolean hasNext() {
+                return this.positions != null || this.randSet.size() < numRand;
+            }
+
+            @Override
+            public TestCase next() {
+                if (this.positions != null) {
+                    long start = exhaustiveTimer.start();
+                    List<APyObj> combo = new ArrayList<>();
+                    for (int param = 0; param < this.positions.length; param++) {
+                        combo.add(possibleArgs.get(param).get(this.positions[param]));
+                    }
+                    this.positions = nextPositions(this.positions, possibleArgs);
+                    casesGenerated.inc();
+                    exhaustiveTimer.stop(start);
+                    this.count(stage);
+                    return new TestCase(combo);
+                }
+                if (this.randSet.size() >= numRand) {
+                    throw new NoSuchElementException();
+                }
+                long start = randomTimer.start();
+                RandomBatchEvent batch = new RandomBatchEvent();
+                batch.begin();
+                TestCase probe = genRandProbe(possibleArgSets, this.randSet, batch);
+                commit(batch, 1);
+                randomTimer.stop(start);
+                this.count(stage);
+                return probe;
+            }
+
+            // Counts a test case towards the progress of generation, finishing the stage
+            // after the last one
+            private void count(ProgressReporter.Stage stage) {
+                stage.inc();
+                if (!this.hasNext()) {
+                    stage.finish();
+                }
+            }
+        };
+    }
+
+    /**
+     * Generates the same base test set as genBaseSet() would without a heap budget,
+     * but in a compact form. Every exhaustive test case is computed from its index
+     * whenever it is requested, rather than being stored, so memory use grows with the
+     * sizes of the exhaustive domains of the individual parameters, rather than with
+     * their product; only the random probes are stored. The exhaustive test cases come
+     * first, in the order of iterBaseSet(), followed by the random probes in the order
+     * they were generated, exactly as in genBaseSet().
+     *
+     * @return the base test set, as a read-only list
+     * @throws IllegalStateException if the random probes alone would exceed the heap
+     *                               budget, or the base test set has more than
+     *                               Integer.MAX_VALUE test cases
+     */
+    public List<TestCase> genCompactBaseSet() {
+        this.generation = this.progress.stage("generate", -1);
+        return this.genCompactBaseSet(this.genExArgs());
+    }
+
+    /**
+     * Helper function for genBaseSet and genCompactBaseSet; generates the compact base
+     * test set from the exhaustive arguments of each parameter.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @return the base test set, as a read-only list
+     */
+    private List<TestCase> genCompactBaseSet(List<Set<? extends APyObj>> possibleArgs) {
+        long numExhaustive = countCombos(possibleArgs);
+        if (numExhaustive + this.numRand > Integer.MAX_VALUE) {
+            throw new IllegalStateException("the base test set has more than "
+                + Integer.MAX_VALUE + " test cases");
+        }
+        long randBytes = this.numRand * (BYTES_PER_TEST + BYTES_PER_OBJ * avgObjSize(possibleArgs));
+        if (this.heapBudget > 0 && randBytes > this.heapBudget) {
+            // Fail now, rather than with an OutOfMemoryError halfway through
+            throw new IllegalStateException("holding " + this.numRand + " random test cases "
+                + "would take about " + randBytes + " bytes, exceeding the heap budget of "
+                + this.heapBudget + " bytes");
+        }
+
+        this.generation.setTotal(numExhaustive + this.numRand);
+        this.generation.add(numExhaustive);
+        Set<TestCase> randSet = new LinkedHashSet<>();
+        long start = this.randomTimer.start();
+        RandomBatchEvent batch = new RandomBatchEvent();
+        batch.begin();
+        while (randSet.size() < this.numRand) {
+            genRandProbe(possibleArgs, randSet, batch);
+            this.generation.inc();
+        }
+        commit(batch, randSet.size());
+        this.randomTimer.stop(start);
+        this.casesGenerated.add(numExhaustive);
+        this.generation.finish();
+
+        List<List<APyObj>> argLists = new ArrayList<>();
+        for (Set<? extends APyObj> args : possibleArgs) {
+            argLists.add(new ArrayList<>(args));
+        }
+        return new CompactBaseSet(argLists, (int) numExhaustive, new ArrayList<>(randSet));
+    }
+
     /**
      * Exbaustively generates a set of all valid test cases within the exhaustive
      * domains stored within the nodes.
@@ -62,22 +356,24 @@ public class BaseSetGenerator {
      * @return a set of valid test cases according to the given specifications
      */
     public Set<TestCase> genExTests() {
+        long start = this.exhaustiveTimer.start();
+
         // For each parameter, generate the set of all possible arguments
-        List<Set<? extends APyObj>> possibleArgs = new ArrayList<>();
-        for (APyNode<?> node : this.nodes) {
-            Set<? extends APyObj> args = node.genExVals();
-            possibleArgs.add(args);
-        }
+        List<Set<? extends APyObj>> possibleArgs = this.genExArgs();
+        this.generation.setTotal(plannedSize(possibleArgs, this.numRand));
 
         // Generate all possible combinations of arguments (selecting one valid argument
         // for each parameter)
         List<List<APyObj>> combos = generateArgCombos(possibleArgs, 0);
-        Set<TestCase> tests = new HashSet<>();
+        Set<TestCase> tests = new LinkedHashSet<>();
 
         // Encapsulate the results within TestCase objects and return
         for (List<APyObj> combo : combos) {
             tests.add(new TestCase(combo));
+            this.generation.inc();
         }
+        this.casesGenerated.add(tests.size());
+        this.exhaustiveTimer.stop(start);
         return tests;
     }
 
@@ -93,6 +389,9 @@ public class BaseSetGenerator {
         // Get the goal size for the base test set
         int goalSize = this.baseSet.size() + this.numRand;
         Set<TestCase> randSet = new HashSet<>();
+        long start = this.randomTimer.start();
+        RandomBatchEvent batch = new RandomBatchEvent();
+        batch.begin();
 
         // Randomly generate one test at a time until we've generated enough. Need to
         // continually check the size in case we randomly generate the same test twice
@@ -108,10 +407,19 @@ public class BaseSetGenerator {
             // Wrap arguments in a TestCase object and add to the base set, making sure
             // that it isn't a duplicate of an object in the exhaustive set
             TestCase test = new TestCase(args);
+            this.randomDraws.inc();
+            batch.draws++;
             if (this.baseSet.add(test)) {
                 randSet.add(test);
+                this.generation.inc();
+            } else {
+                this.duplicatesRejected.inc();
+                batch.duplicates++;
             }
         }
+        commit(batch, randSet.size());
+        this.casesGenerated.add(randSet.size());
+        this.randomTimer.stop(start);
 
         // Note: randSet is not necessary for any reason other than to allow for better
         // isolation during testing. (I originally declared this as a private void helper,
@@ -120,6 +428,227 @@ public class BaseSetGenerator {
         return randSet;
     }
 
+    /**
+     * Helper function that generates, for each parameter, the set of all possible
+     * arguments within its exhaustive domain; generated only once, and shared by every
+     * later call (e.g. countBaseSet() and then iterBaseSet()).
+     *
+     * @return a list of sets, where the i-th set contains all possible exhaustive
+     * arguments for the i-th parameter
+     */
+    private List<Set<? extends APyObj>> genExArgs() {
+        if (this.exArgs == null) {
+            List<Set<? extends APyObj>> possibleArgs = new ArrayList<>();
+            for (int param = 0; param < this.nodes.size(); param++) {
+                possibleArgs.add(this.genExVals(param));
+            }
+            this.exArgs = possibleArgs;
+        }
+        return this.exArgs;
+    }
+
+    /**
+     * Helper function that generates the set of all possible arguments within the
+     * exhaustive domain of a single parameter, emitting a GenExValsEvent around it.
+     *
+     * @param param the index of the parameter
+     * @return the set of all possible exhaustive arguments for the parameter
+     */
+    private Set<? extends APyObj> genExVals(int param) {
+        GenExValsEvent event = new GenExValsEvent();
+        event.begin();
+        Set<? extends APyObj> args = this.nodes.get(param).genExVals();
+        event.end();
+        if (event.shouldCommit()) {
+            event.param = param;
+            event.type = describe(this.nodes.get(param));
+            event.numValues = args.size();
+            event.commit();
+        }
+        return args;
+    }
+
+    /**
+     * Helper function that randomly generates test cases until one is neither among
+     * the exhaustive test cases nor among the random probes generated so far, drawing
+     * exactly the same random values as genRandTests() does.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @param randSet      the random probes generated so far; the new probe is added
+     * @param batch        the event of the batch the probe belongs to; its draws and
+     *                     duplicates are counted
+     * @return the new probe
+     */
+    private TestCase genRandProbe(List<Set<? extends APyObj>> possibleArgs,
+                                  Set<TestCase> randSet, RandomBatchEvent batch) {
+        while (true) {
+            List<APyObj> args = new ArrayList<>();
+            boolean exhaustive = true;
+            for (int param = 0; param < this.nodes.size(); param++) {
+                APyObj arg = this.nodes.get(param).genRandVal();
+                exhaustive &= possibleArgs.get(param).contains(arg);
+                args.add(arg);
+            }
+            TestCase test = new TestCase(args);
+            this.randomDraws.inc();
+            batch.draws++;
+            if (!exhaustive && randSet.add(test)) {
+                this.casesGenerated.inc();
+                return test;
+            }
+            this.duplicatesRejected.inc();
+            batch.duplicates++;
+        }
+    }
+
+    /**
+     * Helper function that ends a RandomBatchEvent, and commits it if it is recorded.
+     *
+     * @param batch    the event, whose draws and duplicates have been counted
+     * @param numCases the number of random test cases generated in the batch
+     */
+    private static void commit(RandomBatchEvent batch, int numCases) {
+        batch.end();
+        if (batch.shouldCommit()) {
+            batch.numCases = numCases;
+            batch.commit();
+        }
+    }
+
+    /**
+     * Helper function that describes the type generated by a node in config file
+     * syntax, e.g. "list(int)" or "dict(str:float)".
+     *
+     * @param node the node
+     * @return the type of the node
+     */
+    private static String describe(APyNode<?> node) {
+        // PyListNode -> list
+        String name = node.getClass().getSimpleName();
+        String type = name.substring(2, name.length() - "Node".length()).toLowerCase();
+        if (node.getLeftChild() == null) {
+            return type;
+        }
+        String children = describe(node.getLeftChild());
+        if (node.getRightChild() != null) {
+            children += ":" + describe(node.getRightChild());
+        }
+        return type + "(" + children + ")";
+    }
+
+    /**
+     * Helper function that estimates the number of bytes genBaseSet() would use to hold
+     * the whole base test set in memory.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @return the approximate number of bytes
+     */
+    private long estimateBytes(List<Set<? extends APyObj>> possibleArgs) {
+        long numExhaustive = countCombos(possibleArgs);
+        long exhaustiveBytes = numExhaustive >= Long.MAX_VALUE / BYTES_PER_TEST ? Long.MAX_VALUE
+            : numExhaustive * BYTES_PER_TEST;
+
+        // Random probes own their arguments; assume they are about as large as the
+        // exhaustive ones
+        long randBytes = this.numRand * (BYTES_PER_TEST + BYTES_PER_OBJ * avgObjSize(possibleArgs));
+        return exhaustiveBytes > Long.MAX_VALUE - randBytes ? Long.MAX_VALUE
+            : exhaustiveBytes + randBytes;
+    }
+
+    /**
+     * Helper function that computes the size of the base test set: every combination of
+     * exhaustive arguments, plus the random probes; saturating at Long.MAX_VALUE.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @param numRand      the number of random probes
+     * @return the number of test cases in the base test set
+     */
+    private static long plannedSize(List<Set<? extends APyObj>> possibleArgs, int numRand) {
+        long numExhaustive = countCombos(possibleArgs);
+        return numExhaustive > Long.MAX_VALUE - numRand ? Long.MAX_VALUE
+            : numExhaustive + numRand;
+    }
+
+    /**
+     * Helper function that counts the combinations of exhaustive arguments, saturating
+     * at Long.MAX_VALUE.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @return the number of exhaustive test cases
+     */
+    private static long countCombos(List<Set<? extends APyObj>> possibleArgs) {
+        long count = 1;
+        for (Set<? extends APyObj> args : possibleArgs) {
+            if (args.isEmpty()) {
+                return 0;
+            }
+            count = count > Long.MAX_VALUE / args.size() ? Long.MAX_VALUE : count * args.size();
+        }
+        return count;
+    }
+
+    /**
+     * Helper function that computes the average total number of Python objects in the
+     * arguments of a test case, over the exhaustive arguments of each parameter.
+     *
+     * @param possibleArgs a list of sets, where the i-th set contains all possible
+     *                     exhaustive arguments for the i-th parameter
+     * @return the average number of objects per test case (at least one per parameter)
+     */
+    private static long avgObjSize(List<Set<? extends APyObj>> possibleArgs) {
+        long total = 0;
+        for (Set<? extends APyObj> args : possibleArgs) {
+            long paramTotal = 0;
+            for (APyObj arg : args) {
+                paramTotal += TestCostModel.objSize(arg);
+            }
+            total += args.isEmpty() ? 1 : Math.max(1, paramTotal / args.size());
+        }
+        return total;
+    }
+
+    /**
+     * Helper function for iterBaseSet; returns the positions of the first combination of
+     * exhaustive arguments.
+     *
+     * @param possibleArgs a list of lists, where the i-th list contains all possible
+     *                     arguments for the i-th parameter
+     * @return all zeros, or null if some parameter has no possible argument (in which
+     * case there are no combinations)
+     */
+    private static int[] initialPositions(List<List<APyObj>> possibleArgs) {
+        for (List<APyObj> args : possibleArgs) {
+            if (args.isEmpty()) {
+                return null;
+            }
+        }
+        return new int[possibleArgs.size()];
+    }
+
+    /**
+     * Helper function for iterBaseSet; advances the positions of a combination of
+     * exhaustive arguments like an odometer, the last parameter varying fastest.
+     *
+     * @param positions    the positions of the current combination; mutated
+     * @param possibleArgs a list of lists, where the i-th list contains all possible
+     *                     arguments for the i-th parameter
+     * @return the positions of the next combination, or null if there is none
+     */
+    private static int[] nextPositions(int[] positions, List<List<APyObj>> possibleArgs) {
+        for (int param = positions.length - 1; param >= 0; param--) {
+            positions[param]++;
+            if (positions[param] < possibleArgs.get(param).size()) {
+                return positions;
+            }
+            positions[param] = 0;
+        }
+        return null;
+    }
+
     /**
      * Helper function for generateTest; a recursive algorithm for generating all possible
      * combinations of arguments across multiple parameters. Uses an additional input,
@@ -162,4 +691,74 @@ public class BaseSetGenerator {
         }
         return allCombos;
     }
-}
\ No newline at end of file
+
+    /**
+     * A read-only base test set that computes each exhaustive test case from its index,
+     * treating the index as a number whose digits are the positions of the arguments in
+     * the exhaustive argument lists (the last parameter being the least significant
+     * digit), and stores only the random probes.
+     */
+    private static class CompactBaseSet extends AbstractList<TestCase> implements RandomAccess {
+
+        /**
+         * The exhaustive arguments of each parameter, in a fixed order.
+         */
+        private final List<List<APyObj>> possibleArgs;
+
+        /**
+         * The number of exhaustive test cases.
+         */
+        private final int numExhaustive;
+
+        /**
+         * The random probes, in the order they were generated.
+         */
+        private final List<TestCase> randTests;
+
+        /**
+         * Constructor for a CompactBaseSet.
+         *
+         * @param possibleArgs  the exhaustive arguments of each parameter
+         * @param numExhaustive the number of exhaustive test cases
+         * @param randTests     the random probes
+         */
+        private CompactBaseSet(List<List<APyObj>> possibleArgs, int numExhaustive,
+                               List<TestCase> randTests) {
+            this.possibleArgs = possibleArgs;
+            this.numExhaustive = numExhaustive;
+            this.randTests = randTests;
+        }
+
+        /**
+         * Returns the test case at the given index, computing it if it is exhaustive.
+         *
+         * @param index the index of the test case
+         * @return the test case
+         */
+        @Override
+        public TestCase get(int index) {
+            Objects.checkIndex(index, this.size());
+            if (index >= this.numExhaustive) {
+                return this.randTests.get(index - this.numExhaustive);
+            }
+            APyObj[] args = new APyObj[this.possibleArgs.size()];
+            int remaining = index;
+            for (int param = args.length - 1; param >= 0; param--) {
+                List<APyObj> paramArgs = this.possibleArgs.get(param);
+                args[param] = paramArgs.get(remaining % paramArgs.size());
+                remaining /= paramArgs.size();
+            }
+            return new TestCase(new ArrayList<>(Arrays.asList(args)));
+        }
+
+        /**
+         * Returns the number of test cases.
+         *
+         * @return the size of the base test set
+         */
+        @Override
+        public int size() {
+            return this.numExhaustive + this.randTests.size();
+        }
+    }
+}
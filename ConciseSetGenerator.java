@@ -1,12 +1,20 @@
 package main.rice.concisegen;
 
+import main.rice.metrics.CoverRoundEvent;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.Timer;
 import main.rice.test.TestCase;
 import main.rice.test.TestResults;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Stateless class that is a wrapper for a greedy approximation of the set cover
@@ -27,48 +35,551 @@ public class ConciseSetGenerator {
      * @return M, a set of test cases that is an approximately minimal set covering
      */
     public static Set<TestCase> setCover(TestResults results) {
+        return setCover(results, MetricsRegistry.DISABLED);
+    }
 
-        // Initialize the structure to return
-        HashSet<TestCase> hittingSet = new HashSet<>();
+    /**
+     * A variant of setCover that measures the lazy greedy algorithm in the given
+     * registry (see lazyGreedyCover(ACoverMatrix, MetricsRegistry)).
+     *
+     * @param results the results of running all tests in B on all files in S
+     * @param metrics the metrics registry
+     * @return M, a set of test cases that is an approximately minimal set covering
+     */
+    public static Set<TestCase> setCover(TestResults results, MetricsRegistry metrics) {
+        BitCoverMatrix matrix =
+            new BitCoverMatrix(results.getCaseToFiles(), results.getWrongSet());
+        return toTestCases(results, lazyGreedyCover(matrix, metrics));
+    }
 
-        // We'll be mutating both caseToFiles and wrongSet, so make copies
-        List<Set<Integer>> caseToFiles = new ArrayList<>();
-        for (Set<Integer> set : results.getCaseToFiles()) {
-            caseToFiles.add(new HashSet<>(set));
+    /**
+     * A variant of setCover for results too large to bit-pack on the heap: the rows are
+     * streamed into a CompressedCoverMatrix, backed by a memory-mapped temporary file in
+     * the given directory (deleted once the cover is found), or on the heap if there is
+     * no directory. The resulting cover is identical to that of setCover.
+     *
+     * @param results the results of running all tests in B on all files in S
+     * @param dir     the directory to hold the backing file, or null to keep the
+     *                compressed rows on the heap
+     * @param metrics the metrics registry
+     * @return M, a set of test cases that is an approximately minimal set covering
+     * @throws IOException if the backing file cannot be written, mapped or deleted
+     */
+    public static Set<TestCase> compressedSetCover(TestResults results, Path dir,
+                                                   MetricsRegistry metrics) throws IOException {
+        int numFiles = 0;
+        for (int file : results.getWrongSet()) {
+            numFiles = Math.max(numFiles, file + 1);
+        }
+        CompressedCoverMatrix.Writer writer = CompressedCoverMatrix.Writer.open(numFiles, dir);
+        CompressedCoverMatrix matrix;
+        try {
+            for (Set<Integer> files : results.getCaseToFiles()) {
+                writer.addRow(files);
+            }
+            matrix = writer.build();
+        } catch (IOException | RuntimeException e) {
+            writer.discard();
+            throw e;
+        }
+        return compressedSetCover(results.getAllTestCases(), matrix, metrics);
+    }
+
+    /**
+     * A variant of compressedSetCover for rows that were streamed into the matrix as
+     * testing finished them (see ParallelTester.runTestsCompressed()), so the results of
+     * testing never exist in any other form. Closes the matrix once the cover is found.
+     *
+     * @param tests   the test cases, in the order of the rows of the matrix
+     * @param matrix  the results of running all tests in B on all files in S
+     * @param metrics the metrics registry
+     * @return M, a set of test cases that is an approximately minimal set covering
+     * @throws IOException if the backing file cannot be deleted
+     */
+    public static Set<TestCase> compressedSetCover(List<TestCase> tests,
+                                                   CompressedCoverMatrix matrix,
+                                                   MetricsRegistry metrics) throws IOException {
+        try (matrix) {
+            HashSet<TestCase> hittingSet = new HashSet<>();
+            for (int caseIndex : lazyGreedyCover(matrix, metrics)) {
+                hittingSet.add(tests.get(caseIndex));
+            }
+            return hittingSet;
         }
-        Set<Integer> wrongSet = new HashSet<>(results.getWrongSet());
+    }
+
+    /**
+     * A variant of setCover that first shrinks the problem with a CoverReduction, and
+     * then runs the lazy greedy algorithm on the (much smaller) reduced problem. The
+     * resulting cover always contains every test case that is the only catcher of some
+     * file, but is not guaranteed to match the cover returned by setCover.
+     *
+     * @param results the results of running all tests in B on all files in S
+     * @return M, a set of test cases that is an approximately minimal set covering
+     */
+    public static Set<TestCase> reducedSetCover(TestResults results) {
+        return reducedSetCover(results, MetricsRegistry.DISABLED);
+    }
+
+    /**
+     * A variant of reducedSetCover that measures itself in the given registry: the time
+     * taken by the reduction, the sizes of the problem before and after it (and the
+     * ratio between them), the number of pre-selected test cases, and the lazy greedy
+     * algorithm run on the reduced problem.
+     *
+     * @param results the results of running all tests in B on all files in S
+     * @param metrics the metrics registry
+     * @return M, a set of test cases that is an approximately minimal set covering
+     */
+    public static Set<TestCase> reducedSetCover(TestResults results, MetricsRegistry metrics) {
+        BitCoverMatrix matrix =
+            new BitCoverMatrix(results.getCaseToFiles(), results.getWrongSet());
+        Timer reductionTimer = metrics.timer("feat_cover_reduction_seconds",
+            "Time taken to reduce set cover problems");
+        long start = reductionTimer.start();
+        CoverReduction reduction = new CoverReduction(matrix);
+        reductionTimer.stop(start);
+        recordReduction(matrix, reduction, metrics);
+        List<Integer> cover = reduction.expand(lazyGreedyCover(reduction.getReduced(), metrics));
+        return toTestCases(results, cover);
+    }
+
+    /**
+     * An exact variant of setCover that searches for a minimum cover with
+     * branch-and-bound, starting from the greedy cover and running in parallel on all
+     * available processors for at most the given wall-clock budget. The cover found is
+     * never larger than that of setCover.
+     *
+     * @param results      the results of running all tests in B on all files in S
+     * @param budgetMillis the maximum time to spend searching, in milliseconds
+     * @return the indices of the best cover found, and whether it is proven minimum
+     */
+    public static ExactCoverSolver.Result exactSetCover(TestResults results,
+                                                        long budgetMillis) {
+        BitCoverMatrix matrix =
+            new BitCoverMatrix(results.getCaseToFiles(), results.getWrongSet());
+        return new ExactCoverSolver(matrix).solve(budgetMillis,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A cost-weighted variant of setCover, which minimizes the total cost of the
+     * selected test cases rather than their number. Costs would typically come from
+     * TestCostModel, either estimated from argument sizes or from measured run times.
+     *
+     * @param results the results of running all tests in B on all files in S
+     * @param costs   an array mapping each test case (index i) to its (positive) cost
+     * @return M, a set of test cases that approximately minimizes the total cost
+     * @throws IllegalArgumentException if there is not exactly one cost per test case,
+     *                                  or a cost is not positive and finite
+     */
+    public static Set<TestCase> weightedSetCover(TestResults results, double[] costs) {
+        BitCoverMatrix matrix =
+            new BitCoverMatrix(results.getCaseToFiles(), results.getWrongSet());
+        return toTestCases(results, weightedGreedyCover(matrix, costs));
+    }
+
+    /**
+     * A parallel variant of setCover, which evaluates the gains of the test cases in each
+     * round on a ForkJoinPool. The resulting cover is identical to that of setCover.
+     *
+     * @param results     the results of running all tests in B on all files in S
+     * @param parallelism the number of threads to evaluate gains with
+     * @return M, a set of test cases that is an approximately minimal set covering
+     */
+    public static Set<TestCase> parallelSetCover(TestResults results, int parallelism) {
+        BitCoverMatrix matrix =
+            new BitCoverMatrix(results.getCaseToFiles(), results.getWrongSet());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return toTestCases(results, parallelGreedyCover(matrix, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The greedy set cover algorithm over a bit-packed matrix. In each round, selects the
+     * test case that catches the most heretofore-uncovered files (breaking ties in favor
+     * of the lowest index), until every file in the wrong set has been covered. None of
+     * the rows in the matrix are mutated; only the uncovered mask changes.
+     *
+     * @param matrix the bit-packed results of testing
+     * @return the indices of the selected test cases, in the order they were selected
+     */
+    public static List<Integer> greedyCover(ACoverMatrix matrix) {
+        List<Integer> cover = new ArrayList<>();
+        long[] uncovered = matrix.newUncoveredMask();
 
         // Select tests until we've "covered" every program that was initially in the
         // wrong set
-        while (wrongSet.size() > 0) {
+        while (matrix.hasUncoveredWrong(uncovered)) {
             int maxFilesCaught = 0;
             int caseOfMaxFiles = -1;
 
             // Find the test case that covers the most heretofore-uncovered files
-            for (int caseIndex = 0; caseIndex < caseToFiles.size(); caseIndex++) {
-                Set<Integer> filesCaught = caseToFiles.get(caseIndex);
-                if (filesCaught.size() > maxFilesCaught) {
-                    maxFilesCaught = filesCaught.size();
+            for (int caseIndex = 0; caseIndex < matrix.numCases(); caseIndex++) {
+                int filesCaught = matrix.gain(caseIndex, uncovered);
+                if (filesCaught > maxFilesCaught) {
+                    maxFilesCaught = filesCaught;
                     caseOfMaxFiles = caseIndex;
                 }
             }
 
-            // Remove all covered files from the wrongSet
-            HashSet<Integer> coveredFiles =
-                new HashSet<>(caseToFiles.get(caseOfMaxFiles));
-            wrongSet.removeAll(coveredFiles);
+            // No remaining test case catches anything new
+            if (caseOfMaxFiles == -1) {
+                break;
+            }
+
+            // Mark all files caught by the selected test case as covered
+            matrix.cover(caseOfMaxFiles, uncovered);
+            cover.add(caseOfMaxFiles);
+        }
+        return cover;
+    }
+
+    /**
+     * A parallel variant of greedyCover. In each round, the test cases are partitioned
+     * across the pool, the best test case of each partition is found, and the partial
+     * results are reduced with the same tie-break as greedyCover (lowest index wins), so
+     * the selected cover is identical.
+     *
+     * @param matrix the results of testing
+     * @param pool   the pool to evaluate gains on
+     * @return the indices of the selected test cases, in the order they were selected
+     */
+    public static List<Integer> parallelGreedyCover(ACoverMatrix matrix, ForkJoinPool pool) {
+        List<Integer> cover = new ArrayList<>();
+        long[] uncovered = matrix.newUncoveredMask();
 
-            // Update the caseToFiles mapping such that the set of files caught by each
-            // test no longer includes the newly-covered files
-            for (Set<Integer> filesCaught : caseToFiles) {
-                filesCaught.removeAll(coveredFiles);
+        while (matrix.hasUncoveredWrong(uncovered)) {
+            long best = pool.invoke(new GainTask(matrix, uncovered, 0, matrix.numCases()));
+            int maxFilesCaught = (int) (best >>> 32);
+            if (maxFilesCaught == 0) {
+                break;
             }
+            int caseOfMaxFiles = Integer.MAX_VALUE - (int) best;
+            matrix.cover(caseOfMaxFiles, uncovered);
+            cover.add(caseOfMaxFiles);
+        }
+        return cover;
+    }
+
+    /**
+     * A lazy variant of greedyCover that avoids rescanning every test case in each
+     * round. Test cases are kept in a max-heap keyed by their most recently computed
+     * gain; since gains can only shrink as files are covered (submodularity), a stale
+     * gain is an upper bound on the true gain. Each round therefore only re-evaluates
+     * the top of the heap until a freshly-computed entry still beats the next-best stale
+     * entry. Ties are broken in favor of the lowest index, so the selected cover is
+     * identical to that of greedyCover.
+     *
+     * @param matrix the bit-packed results of testing
+     * @return the indices of the selected test cases, in the order they were selected
+     */
+    public static List<Integer> lazyGreedyCover(ACoverMatrix matrix) {
+        return lazyGreedyCover(matrix, MetricsRegistry.DISABLED);
+    }
 
-            // Add the selected test case to the hitting set
-            hittingSet.add(results.getTestCase(caseOfMaxFiles));
+    /**
+     * A variant of lazyGreedyCover that measures itself in the given registry: the time
+     * taken, the number of entries polled off the top of the heap, the number of test
+     * cases selected (one per round), and the number of gains evaluated. Each selection is also
+     * emitted as a CoverRoundEvent, for Java Flight Recorder.
+     *
+     * @param matrix  the bit-packed results of testing
+     * @param metrics the metrics registry
+     * @return the indices of the selected test cases, in the order they were selected
+     */
+    public static List<Integer> lazyGreedyCover(ACoverMatrix matrix, MetricsRegistry metrics) {
+        return lazyGreedyCover(matrix, null, metrics);
+    }
+
+    /**
+     * A variant of lazyGreedyCover that starts from a heap of entries that has already
+     * been built, e.g. by an IncrementalCover as its rows arrived.
+     *
+     * @param matrix  the bit-packed results of testing
+     * @param heap    the entries {gain, caseIndex} of every test case that catches any
+     *                file, in a heap created by newGainHeap(), where each gain is an
+     *                upper bound on the number of files it catches; consumed. If null,
+     *                the entries are computed from the matrix
+     * @param metrics the metrics registry
+     * @return the indices of the selected test cases, in the order they were selected
+     */
+    static List<Integer> lazyGreedyCover(ACoverMatrix matrix, PriorityQueue<int[]> heap,
+                                         MetricsRegistry metrics) {
+        Timer coverTimer = metrics.timer("feat_cover_seconds", "Time taken by set cover");
+        long start = coverTimer.start();
+        long heapPolls = 0;
+        long gainEvaluations = 0;
+        List<Integer> cover = new ArrayList<>();
+        long[] uncovered = matrix.newUncoveredMask();
+
+        if (heap == null) {
+            heap = newGainHeap(matrix.numCases());
+            for (int caseIndex = 0; caseIndex < matrix.numCases(); caseIndex++) {
+                int gain = matrix.gain(caseIndex, uncovered);
+                if (gain > 0) {
+                    heap.add(new int[]{gain, caseIndex});
+                }
+            }
+            gainEvaluations = matrix.numCases();
+        }
+
+        CoverRoundEvent event = new CoverRoundEvent();
+        event.begin();
+        int roundEvaluations = 0;
+        while (matrix.hasUncoveredWrong(uncovered) && !heap.isEmpty()) {
+            int[] top = heap.poll();
+            heapPolls++;
+            gainEvaluations++;
+            roundEvaluations++;
+
+            // Refresh the (possibly stale) gain of the top entry; drop it if it no
+            // longer catches anything new
+            top[0] = matrix.gain(top[1], uncovered);
+            if (top[0] == 0) {
+                continue;
+            }
+
+            // If the fresh entry still beats every other (stale, upper-bound) entry, it
+            // is the true best; otherwise put it back and try the new top
+            if (heap.isEmpty() || compareEntries(top, heap.peek()) <= 0) {
+                matrix.cover(top[1], uncovered);
+                cover.add(top[1]);
+
+                event.end();
+                if (event.shouldCommit()) {
+                    event.round = cover.size();
+                    event.selectedCase = top[1];
+                    event.gain = top[0];
+                    event.evaluations = roundEvaluations;
+                    event.candidates = heap.size();
+                    event.commit();
+                }
+                event = new CoverRoundEvent();
+                event.begin();
+                roundEvaluations = 0;
+            } else {
+                heap.add(top);
+            }
+        }
+
+        coverTimer.stop(start);
+        metrics.counter("feat_cover_heap_polls_total",
+            "Entries polled off the gain heap by set cover").add(heapPolls);
+        metrics.counter("feat_cover_selected_total", "Test cases selected by set cover")
+            .add(cover.size());
+        metrics.counter("feat_cover_gain_evaluations_total",
+            "Gains evaluated by set cover").add(gainEvaluations);
+        return cover;
+    }
+
+    /**
+     * The weighted greedy set cover algorithm. In each round, selects the test case with
+     * the highest ratio of newly-caught files to cost (breaking ties in favor of the
+     * lowest index). Like lazyGreedyCover, ratios are kept in a max-heap and only
+     * re-evaluated at the top, which is sound since costs are fixed and gains can only
+     * shrink.
+     *
+     * @param matrix the bit-packed results of testing
+     * @param costs  an array mapping each test case (index i) to its (positive) cost
+     * @return the indices of the selected test cases, in the order they were selected
+     * @throws IllegalArgumentException if there is not exactly one cost per test case,
+     *                                  or a cost is not positive and finite
+     */
+    public static List<Integer> weightedGreedyCover(ACoverMatrix matrix, double[] costs) {
+        if (costs.length != matrix.numCases()) {
+            throw new IllegalArgumentException("expected " + matrix.numCases()
+                + " costs, one per test case, but got " + costs.length);
+        }
+        for (int caseIndex = 0; caseIndex < costs.length; caseIndex++) {
+            if (!(costs[caseIndex] > 0) || Double.isInfinite(costs[caseIndex])) {
+                throw new IllegalArgumentException("the cost of test case " + caseIndex
+                    + " is " + costs[caseIndex] + ", but must be positive and finite");
+            }
+        }
+        List<Integer> cover = new ArrayList<>();
+        long[] uncovered = matrix.newUncoveredMask();
+
+        // The most recently computed ratio for each test case; a case's ratio is only
+        // updated while it is out of the heap
+        double[] ratios = new double[matrix.numCases()];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, matrix.numCases()),
+            (case1, case2) -> ratios[case1] != ratios[case2]
+                ? Double.compare(ratios[case2], ratios[case1])
+                : Integer.compare(case1, case2));
+        for (int caseIndex = 0; caseIndex < matrix.numCases(); caseIndex++) {
+            int gain = matrix.gain(caseIndex, uncovered);
+            if (gain > 0) {
+                ratios[caseIndex] = gain / costs[caseIndex];
+                heap.add(caseIndex);
+            }
+        }
+
+        while (matrix.hasUncoveredWrong(uncovered) && !heap.isEmpty()) {
+            int top = heap.poll();
+            int gain = matrix.gain(top, uncovered);
+            if (gain == 0) {
+                continue;
+            }
+            ratios[top] = gain / costs[top];
+
+            // Select the fresh entry if it still beats the best stale entry
+            if (heap.isEmpty() || heap.comparator().compare(top, heap.peek()) <= 0) {
+                matrix.cover(top, uncovered);
+                cover.add(top);
+            } else {
+                heap.add(top);
+            }
+        }
+        return cover;
+    }
+
+    /**
+     * Helper function that records the sizes of a set cover problem before and after a
+     * reduction, as gauges.
+     *
+     * @param matrix    the original problem
+     * @param reduction the reduction of matrix
+     * @param metrics   the metrics registry
+     */
+    private static void recordReduction(ACoverMatrix matrix, CoverReduction reduction,
+                                        MetricsRegistry metrics) {
+        BitCoverMatrix reduced = reduction.getReduced();
+        metrics.gauge("feat_cover_reduction_original_cases",
+            "Test cases in the set cover problem before reduction", matrix::numCases);
+        metrics.gauge("feat_cover_reduction_original_files",
+            "Files in the set cover problem before reduction", matrix::numFiles);
+        metrics.gauge("feat_cover_reduction_reduced_cases",
+            "Test cases in the set cover problem after reduction", reduced::numCases);
+        metrics.gauge("feat_cover_reduction_reduced_files",
+            "Files in the set cover problem after reduction", reduced::numFiles);
+        metrics.gauge("feat_cover_reduction_preselected_cases",
+            "Test cases pre-selected by the reduction", () -> reduction.getPreselected().size());
+        metrics.gauge("feat_cover_reduction_ratio",
+            "Size of the set cover problem before reduction over its size after",
+            reduction::getReductionRatio);
+    }
+
+    /**
+     * Creates an empty heap of entries of the form {gain, caseIndex}, for
+     * lazyGreedyCover(ACoverMatrix, PriorityQueue, MetricsRegistry).
+     *
+     * @param capacity the number of entries expected
+     * @return the empty heap
+     */
+    static PriorityQueue<int[]> newGainHeap(int capacity) {
+        return new PriorityQueue<>(Math.max(1, capacity), ConciseSetGenerator::compareEntries);
+    }
+
+    /**
+     * Helper function that orders heap entries of the form {gain, caseIndex} such that
+     * entries with a higher gain come first, and ties go to the lower index.
+     *
+     * @param entry1 the first entry
+     * @param entry2 the second entry
+     * @return a negative number if entry1 should be selected before entry2
+     */
+    private static int compareEntries(int[] entry1, int[] entry2) {
+        if (entry1[0] != entry2[0]) {
+            return Integer.compare(entry2[0], entry1[0]);
         }
+        return Integer.compare(entry1[1], entry2[1]);
+    }
 
-        // Return the hitting set
+    /**
+     * Converts a list of selected test case indices (e.g. the cover in the result of
+     * exactSetCover) into the corresponding set of test cases.
+     *
+     * @param results the results of testing, used to look up each test case
+     * @param indices the indices of the selected test cases
+     * @return the set of selected test cases
+     */
+    public static Set<TestCase> toTestCases(TestResults results, List<Integer> indices) {
+        HashSet<TestCase> hittingSet = new HashSet<>();
+        for (int caseIndex : indices) {
+            hittingSet.add(results.getTestCase(caseIndex));
+        }
         return hittingSet;
     }
-}
\ No newline at end of file
+
+    /**
+     * A task that finds the test case with the highest gain within a range of test
+     * cases, splitting the range in half until it is small enough to scan directly. The
+     * result packs the gain into the upper 32 bits and (Integer.MAX_VALUE - index) into
+     * the lower 32 bits, so that taking the maximum of two results prefers the higher
+     * gain and then the lower index.
+     */
+    private static class GainTask extends RecursiveTask<Long> {
+
+        /**
+         * The version of the serialized form of GainTask (which is never serialized,
+         * but is Serializable as a ForkJoinTask).
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The number of test cases below which a range is scanned directly.
+         */
+        private static final int THRESHOLD = 2048;
+
+        /**
+         * The results of testing.
+         */
+        private final ACoverMatrix matrix;
+
+        /**
+         * The mask of uncovered columns; not mutated.
+         */
+        private final long[] uncovered;
+
+        /**
+         * The first test case in the range (inclusive).
+         */
+        private final int start;
+
+        /**
+         * The last test case in the range (exclusive).
+         */
+        private final int end;
+
+        /**
+         * Constructor for a GainTask.
+         *
+         * @param matrix    the results of testing
+         * @param uncovered the mask of uncovered columns
+         * @param start     the first test case in the range (inclusive)
+         * @param end       the last test case in the range (exclusive)
+         */
+        GainTask(ACoverMatrix matrix, long[] uncovered, int start, int end) {
+            this.matrix = matrix;
+            this.uncovered = uncovered;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Finds the best test case within the range.
+         *
+         * @return the packed gain and index of the best test case
+         */
+        @Override
+        protected Long compute() {
+            if (this.end - this.start <= THRESHOLD) {
+                long best = 0;
+                for (int caseIndex = this.start; caseIndex < this.end; caseIndex++) {
+                    long gain = this.matrix.gain(caseIndex, this.uncovered);
+                    best = Math.max(best, (gain << 32) | (Integer.MAX_VALUE - caseIndex));
+                }
+                return best;
+            }
+            int mid = (this.start + this.end) >>> 1;
+            GainTask left = new GainTask(this.matrix, this.uncovered, this.start, mid);
+            left.fork();
+            long right = new GainTask(this.matrix, this.uncovered, mid, this.end).compute();
+            return Math.max(left.join(), right);
+        }
+    }
+}
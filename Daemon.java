@@ -0,0 +1,270 @@
+package main.rice;
+
+import main.rice.metrics.MetricsRegistry;
+import main.rice.parse.ConfigFile;
+import main.rice.test.PythonWorkerPool;
+import main.rice.test.TestCase;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived server that generates concise test sets on request, so that a stream of
+ * small jobs pays for JVM startup, class loading and JIT warm-up only once. The daemon
+ * listens on a Unix domain socket ("unix:PATH") or a loopback TCP port ("tcp:PORT"),
+ * and runs each connection as one job on a bounded pool of job threads; connections
+ * beyond the bound wait for a free thread.
+ *
+ * A job is requested by sending a single line: the arguments that would be passed to
+ * Main (config file, buggy implementations, reference solution, then any flags),
+ * separated by tabs. The daemon replies with one line per event, each a tab-separated
+ * record: "accepted" and the job's id; "test" and each test case in the concise set;
+ * "metric", a name and a value, for each of the job's metrics (queued_millis,
+ * run_millis, concise_size); and finally either "done", or "error" and a message.
+ *
+ * Jobs are isolated from one another: each has its own executor, and a job that fails
+ * only fails its own connection. Python interpreters, however, are kept warm in a pool
+ * shared by every job, keyed by the contents of the file each has imported (see
+ * PythonWorkerPool), so a later job reuses an interpreter only if its file has not
+ * changed in between. A client that does not send its request within a fixed time is
+ * disconnected, so that it cannot hold a job thread forever. Flags that start other
+ * processes or write state meant for a single run (--shard, --shards, --checkpoint)
+ * are rejected. Paths in requests are resolved against the daemon's working directory,
+ * so clients should send absolute paths.
+ */
+public class Daemon implements Closeable {
+
+    /**
+     * The maximum time a client may take to send its request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Disconnects clients that have not sent their request in time.
+     */
+    private static final ScheduledExecutorService WATCHDOG =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "daemon-request-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Accepts connections.
+     */
+    private final ServerSocketChannel server;
+
+    /**
+     * The path to the Unix domain socket, or null if listening on TCP.
+     */
+    private final Path socketPath;
+
+    /**
+     * Runs the jobs.
+     */
+    private final ExecutorService jobs;
+
+    /**
+     * The id of the next job.
+     */
+    private final AtomicLong nextJobId;
+
+    /**
+     * The Python interpreters shared by every job.
+     */
+    private final PythonWorkerPool pythonPool;
+
+    /**
+     * Constructor for a Daemon; binds the socket, replacing a stale Unix domain socket
+     * left behind by an earlier daemon.
+     *
+     * @param address "unix:PATH" or "tcp:PORT"
+     * @param maxJobs the maximum number of jobs run at once
+     * @throws IOException if the socket cannot be bound
+     */
+    public Daemon(String address, int maxJobs) throws IOException {
+        SocketAddress bindAddress;
+        if (address.startsWith("unix:")) {
+            this.socketPath = Path.of(address.substring("unix:".length()));
+            Files.deleteIfExists(this.socketPath);
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            bindAddress = UnixDomainSocketAddress.of(this.socketPath);
+        } else if (address.startsWith("tcp:")) {
+            this.socketPath = null;
+            this.server = ServerSocketChannel.open();
+            bindAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(address.substring("tcp:".length())));
+        } else {
+            throw new IllegalArgumentException("address must be unix:PATH or tcp:PORT");
+        }
+        this.server.bind(bindAddress);
+        this.jobs = Executors.newFixedThreadPool(maxJobs);
+        this.nextJobId = new AtomicLong(1);
+        this.pythonPool = new PythonWorkerPool("python3",
+            Math.max(maxJobs, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the address the daemon is listening on, e.g. to find the port chosen for
+     * "tcp:0".
+     *
+     * @return the local address of the socket
+     * @throws IOException if the socket is closed
+     */
+    public SocketAddress getAddress() throws IOException {
+        return this.server.getLocalAddress();
+    }
+
+    /**
+     * Accepts connections and runs their jobs, until the daemon is closed.
+     *
+     * @throws IOException if accepting a connection fails other than by the daemon
+     *                     being closed
+     */
+    public void serve() throws IOException {
+        while (this.server.isOpen()) {
+            SocketChannel connection;
+            try {
+                connection = this.server.accept();
+            } catch (IOException e) {
+                if (!this.server.isOpen()) {
+                    return;
+                }
+                throw e;
+            }
+            long acceptedAt = System.nanoTime();
+            long jobId = this.nextJobId.getAndIncrement();
+            try {
+                this.jobs.execute(() -> this.runJob(jobId, connection, acceptedAt));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the job will never run
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, interrupts running jobs, kills the idle interpreters
+     * and removes the Unix domain socket.
+     *
+     * @throws IOException if the socket cannot be closed or removed
+     */
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.jobs.shutdownNow();
+        this.pythonPool.close();
+        if (this.socketPath != null) {
+            Files.deleteIfExists(this.socketPath);
+        }
+    }
+
+    /**
+     * Helper function that runs a single job, reporting its progress and outcome over
+     * its connection. Never throws: any failure is reported to the client.
+     *
+     * @param jobId      the id of the job
+     * @param connection the connection that requested the job; closed once done
+     * @param acceptedAt the time the connection was accepted, as given by
+     *                   System.nanoTime()
+     */
+    private void runJob(long jobId, SocketChannel connection, long acceptedAt) {
+        long startedAt = System.nanoTime();
+        try (connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 Channels.newInputStream(connection), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                 Channels.newOutputStream(connection), StandardCharsets.UTF_8)))) {
+            ScheduledFuture<?> hangUp = WATCHDOG.schedule(() -> {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Closed anyway
+                }
+            }, REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            String request;
+            try {
+                request = in.readLine();
+            } finally {
+                hangUp.cancel(false);
+            }
+            if (request == null || !connection.isOpen()) {
+                return;
+            }
+            reply(out, "accepted", Long.toString(jobId));
+            try {
+                String[] args = request.split("\t");
+                if (args.length < 3) {
+                    throw new IllegalArgumentException("expected config, buggy implementations"
+                        + " and reference solution");
+                }
+                if (Main.optionValue(args, "--shard") != null) {
+                    throw new IllegalArgumentException("--shard is reserved for shard workers");
+                }
+                if (Main.optionValue(args, "--shards") != null
+                        || Main.optionValue(args, "--checkpoint") != null) {
+                    throw new IllegalArgumentException("--shards and --checkpoint are not"
+                        + " supported by the daemon");
+                }
+                MetricsRegistry metrics = Main.newMetrics(args);
+                ConfigFile configFile = Main.parseConfig(args, metrics);
+                Set<TestCase> tests = Main.generateTests(args, configFile, metrics,
+                    this.pythonPool);
+                Main.writeMetrics(args, metrics);
+                for (TestCase test : tests) {
+                    reply(out, "test", test.toString());
+                }
+                reply(out, "metric", "queued_millis", Long.toString((startedAt - acceptedAt)
+                    / 1_000_000));
+                reply(out, "metric", "run_millis", Long.toString((System.nanoTime() - startedAt)
+                    / 1_000_000));
+                reply(out, "metric", "concise_size", Integer.toString(tests.size()));
+                reply(out, "done");
+            } catch (InterruptedException e) {
+                reply(out, "error", "interrupted");
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                reply(out, "error", String.valueOf(e));
+            }
+        } catch (IOException e) {
+            // The client went away; there is no one left to report to
+        }
+    }
+
+    /**
+     * Helper function that sends one record to the client, replacing any tab or line
+     * break within a field with a space so that the record stays on one line.
+     *
+     * @param out    the client's connection
+     * @param fields the fields of the record
+     */
+    private static void reply(PrintWriter out, String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            line.append(field.replaceAll("[\t\r\n]", " "));
+        }
+        out.print(line.append('\n'));
+        out.flush();
+    }
+}
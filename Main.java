@@ -1,15 +1,56 @@
 package main.rice;
 import main.rice.basegen.BaseSetGenerator;
+import main.rice.concisegen.CompressedCoverMatrix;
 import main.rice.concisegen.ConciseSetGenerator;
+import main.rice.concisegen.ExactCoverSolver;
+import main.rice.concisegen.TestCostModel;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.ProgressReporter;
 import main.rice.parse.*;
 import main.rice.test.*;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * The Main class is the entry point to this test case generator.
  * It ties together all the different components and generates a concise set of test cases.
  *
+ * The three positional arguments (the config file, the directory of buggy implementations and the reference
+ * solution) may be followed by these flags:
+ * <ul>
+ * <li>"--jobs N" executes tests on N persistent Python interpreters at once (split between the workers with --shards)</li>
+ * <li>"--backend java" treats the second path as a jar of Java implementations and the third as the name of the
+ * reference solution's class (see JavaExecutor)</li>
+ * <li>"--cache DIR" reuses reference outputs and unchanged implementations' results cached in DIR (with --jobs or
+ * --backend)</li>
+ * <li>"--timeout-multiple M" kills implementations after M times the reference's run time (with --jobs or
+ * --backend)</li>
+ * <li>"--timeout-floor-ms MS" never kills implementations under MS milliseconds, 100 by default (with
+ * --timeout-multiple)</li>
+ * <li>"--report-mismatches" prints the first output by which each implementation was caught (with --jobs or
+ * --backend)</li>
+ * <li>"--seed S" seeds random generation</li>
+ * <li>"--shards N" splits testing across N worker JVMs whose results are merged before set cover (see
+ * ShardCoordinator)</li>
+ * <li>"--pipeline Q" generates, tests and covers concurrently, with at most Q tests queued per stage (see
+ * TestPipeline)</li>
+ * <li>"--checkpoint DIR" logs the pipeline's progress to DIR (implies the pipeline)</li>
+ * <li>"--resume" continues from the progress logged by an interrupted run (with --checkpoint)</li>
+ * <li>"--heap-budget-mb M" keeps the base set compact if holding all of it would take over M MiB</li>
+ * <li>"--offheap-cover DIR" runs the greedy set cover on compressed rows memory-mapped from a temporary file in DIR
+ * (see CompressedCoverMatrix)</li>
+ * <li>"--cover ALGORITHM" picks the set cover algorithm: "greedy" (the default), "reduced", "weighted", "parallel"
+ * or "exact" (see coverTests())</li>
+ * <li>"--cover-budget-ms MS" bounds the search of the exact cover, 10000 by default</li>
+ * <li>"--metrics DIR" writes metrics of every stage to DIR as metrics.json and metrics.prom</li>
+ * <li>"--progress SECONDS" prints the progress of every stage to stderr every SECONDS seconds</li>
+ * </ul>
+ * The pipeline (--pipeline or --checkpoint) cannot be combined with --shards, --cover, --offheap-cover, --cache,
+ * --report-mismatches or --heap-budget-mb. Instead of all of the above, the arguments "--daemon ADDRESS [MAX_JOBS]"
+ * serve jobs over a socket (see Daemon).
  */
 public class Main {
     /**
@@ -17,14 +58,37 @@ public class Main {
      */
     private static String fname;
 
+    /**
+     * the least time an implementation is given with --timeout-multiple, in milliseconds, unless --timeout-floor-ms
+     * says otherwise; it absorbs the timing noise of tests whose reference run time is tiny
+     */
+    private static final long DEFAULT_TIMEOUT_FLOOR_MILLIS = 100;
+
     /**
      * This method takes as its input a String[] that contains three string arguments: the path to the config file,
      * path to the directory containing the buggy implementations and the path to the reference solution and passes this String[] to generate test,
      * then it prints the resulting concise test set.
-     * @param args - a String[] containing the 3 string paths to files necessary to create the concise test set
-     *
+     * @param args - a String[] containing the 3 string paths to files necessary to create the concise test set,
+     *             optionally followed by flags (see the class documentation)
      */
      public static void main(String[] args) throws IOException, InvalidConfigException, InterruptedException{
+         if (args.length >= 2 && args[0].equals("--daemon")) { // serve jobs from a warm JVM until killed
+             int maxJobs = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+             Daemon daemon = new Daemon(args[1], maxJobs);
+             Runtime.getRuntime().addShutdownHook(new Thread(() -> { // remove the socket when killed
+                 try {
+                     daemon.close();
+                 } catch (IOException e) {
+                     // Exiting anyway
+                 }
+             }));
+             daemon.serve();
+             return;
+         }
+         if (optionValue(args, "--shard") != null) { // launched by a coordinator to test a single shard
+             runShard(args);
+             return;
+         }
          Set<TestCase> tests = generateTests(args);
          System.out.println("The concise test set for "+fname+": "+tests);
      }
@@ -38,16 +102,503 @@ public class Main {
      * @throws InvalidConfigException if the input file cant be parsed i.e. the input file is invalid
      */
     public static Set<TestCase> generateTests(String[] args) throws IOException,InvalidConfigException, InterruptedException{
-         String configPath = args[0]; // get the strings
+         MetricsRegistry metrics = newMetrics(args);
+         ConfigFile configFile = parseConfig(args, metrics);
+         fname= configFile.getFuncName();
+         Set<TestCase> tests = generateTests(args, configFile, metrics, null);
+         writeMetrics(args, metrics);
+         return tests;
+    }
+
+    /**
+     * This method generates the concise test set for an already-parsed config file; unlike generateTests(args), it
+     * touches no static state, so several calls may run at once (e.g. one per job in a Daemon).
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file named by the first argument
+     * @param metrics the registry every stage is measured in
+     * @param pythonPool the pool to borrow Python interpreters from, shared with other calls, or null for a pool of
+     *                   this call's own
+     * @return the concise test set
+     * @throws IOException if a file cant be read or a file path is invalid
+     * @throws InterruptedException if computeExpectedResults() or runTests() is interrupted
+     * @throws InvalidConfigException if the config file describes a base set that cant be held
+     */
+    static Set<TestCase> generateTests(String[] args, ConfigFile configFile, MetricsRegistry metrics,
+                                       PythonWorkerPool pythonPool)
+            throws IOException, InterruptedException, InvalidConfigException {
+         try (ProgressReporter progress = newProgress(args)) {
+             return generateTests(args, configFile, metrics, progress, pythonPool);
+         }
+    }
+
+    /**
+     * This helper method generates the concise test set for an already-parsed config file, reporting progress.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file named by the first argument
+     * @param metrics the registry every stage is measured in
+     * @param progress the reporter every stage reports its progress to
+     * @param pythonPool the pool to borrow Python interpreters from, or null for a pool of this call's own
+     * @return the concise test set
+     * @throws IOException if a file cant be read or a file path is invalid
+     * @throws InterruptedException if computeExpectedResults() or runTests() is interrupted
+     * @throws InvalidConfigException if the config file describes a base set that cant be held
+     */
+    private static Set<TestCase> generateTests(String[] args, ConfigFile configFile, MetricsRegistry metrics,
+                                               ProgressReporter progress, PythonWorkerPool pythonPool)
+            throws IOException, InterruptedException, InvalidConfigException {
+         String shards = optionValue(args, "--shards");
+         String seed = optionValue(args, "--seed");
+         if (shards != null && seed == null) { // every worker must generate the same base set
+             seed = Long.toString(new Random().nextLong());
+         }
+         String checkpoint = optionValue(args, "--checkpoint");
+         if (checkpoint != null && seed == null) { // a resumed run must regenerate the same base set
+             Long stored = hasFlag(args, "--resume") ? CheckpointLog.readSeed(Path.of(checkpoint)) : null;
+             seed = stored != null ? stored.toString() : Long.toString(new Random().nextLong());
+         }
+         String pipeline = optionValue(args, "--pipeline");
+         if (shards != null && (pipeline != null || checkpoint != null)) { // the pipeline tests in this JVM only
+             throw new IllegalArgumentException("--shards cannot be combined with --pipeline or --checkpoint");
+         }
+         if (pipeline != null || checkpoint != null) { // the pipeline always tests uncached and covers incrementally
+             for (String flag : new String[] {"--cover", "--offheap-cover", "--cache", "--report-mismatches", "--heap-budget-mb"}) {
+                 if (hasFlag(args, flag)) {
+                     throw new IllegalArgumentException(flag + " cannot be combined with --pipeline or --checkpoint");
+                 }
+             }
+         }
+         if (pipeline != null || checkpoint != null) { // overlap generation, execution and set cover, holding at most this many tests per stage
+             BaseSetGenerator bSetGen = new BaseSetGenerator(configFile.getNodes(),configFile.getNumRand());
+             bSetGen.setMetrics(metrics);
+             bSetGen.setProgress(progress);
+             if (seed != null) {
+                 bSetGen.setSeed(Long.parseLong(seed));
+             }
+             TestPipeline testPipeline = new TestPipeline(newExecutor(args, configFile, pythonPool));
+             testPipeline.setMetrics(metrics);
+             if (progress != ProgressReporter.DISABLED) { // the pipeline cant tell how many tests are coming
+                 testPipeline.setProgress(progress, bSetGen.countBaseSet());
+             }
+             if (pipeline != null) {
+                 testPipeline.setQueueCapacity(Integer.parseInt(pipeline));
+             }
+             String jobs = optionValue(args, "--jobs");
+             if (jobs != null) {
+                 testPipeline.setParallelism(Integer.parseInt(jobs));
+             }
+             String multiple = optionValue(args, "--timeout-multiple");
+             if (multiple != null) {
+                 testPipeline.setAdaptiveTimeout(Double.parseDouble(multiple), timeoutFloorMillis(args));
+             }
+             if (checkpoint == null) {
+                 return testPipeline.run(bSetGen.iterBaseSet());
+             }
+             String runKey = testPipeline.runKey(Files.readString(Path.of(args[0])) + "\0" + seed);
+             try (CheckpointLog log = new CheckpointLog(Path.of(checkpoint), Long.parseLong(seed), runKey,
+                     hasFlag(args, "--resume"))) { // log every completed row, skipping those logged by an earlier run
+                 testPipeline.setCheckpoint(log);
+                 return testPipeline.run(bSetGen.iterBaseSet());
+             }
+         }
+         List<TestCase> baseTests = genBaseTests(args, configFile, seed, metrics, progress);
+         String offHeapCover = optionValue(args, "--offheap-cover");
+         String cover = optionValue(args, "--cover");
+         if (offHeapCover != null && (cover == null || cover.equals("greedy"))
+                 && (shards != null || optionValue(args, "--jobs") != null || optionValue(args, "--backend") != null)) {
+             CompressedCoverMatrix matrix; // each row is compressed as soon as it is finished
+             if (shards == null) {
+                 ParallelTester tester = newParallelTester(args, configFile, baseTests, metrics, progress, pythonPool);
+                 tester.computeExpectedResults();
+                 matrix = tester.runTestsCompressed(Path.of(offHeapCover));
+                 reportMismatches(tester);
+             } else {
+                 Path workDir = Files.createTempDirectory("feat-shards");
+                 ShardCoordinator coordinator = new ShardCoordinator(workerCommand(args, seed, Integer.parseInt(shards)),
+                     Integer.parseInt(shards), workDir);
+                 matrix = coordinator.runCompressed(baseTests, Path.of(offHeapCover));
+                 deleteTree(workDir);
+             }
+             return ConciseSetGenerator.compressedSetCover(baseTests, matrix, metrics);
+         }
+         TestResults res;
+         long[] referenceNanos = new long[baseTests.size()]; // stays unknown unless a ParallelTester measures it
+         Arrays.fill(referenceNanos, -1);
+         if (shards == null) {
+             res = runTests(args, configFile, baseTests, metrics, progress, referenceNanos, pythonPool);
+         } else { // split the base set across worker JVMs, and merge their results
+             Path workDir = Files.createTempDirectory("feat-shards");
+             ShardCoordinator coordinator = new ShardCoordinator(workerCommand(args, seed, Integer.parseInt(shards)),
+                 Integer.parseInt(shards), workDir);
+             res = coordinator.run(baseTests); // on failure, the workers' logs are kept for the error to point to
+             deleteTree(workDir);
+         }
+        return coverTests(args, res, referenceNanos, metrics);} // get the concise set
+
+    /**
+     * This helper method runs the set cover algorithm selected by the "--cover" flag on the results of testing: the
+     * greedy algorithm by default (on compressed rows with "--offheap-cover DIR"), "reduced" to shrink the problem
+     * first (see CoverReduction), "weighted" to minimise the total run time of the tests (see TestCostModel),
+     * "parallel" to evaluate the greedy gains on several threads, or "exact" to search for
+     * a minimum cover (see ExactCoverSolver).
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param res the results of testing
+     * @param referenceNanos the reference solution's run time on each test case in nanoseconds, or -1 where unknown
+     * @param metrics the registry set cover is measured in
+     * @return the concise test set
+     * @throws IOException if the compressed rows cant be written
+     */
+    private static Set<TestCase> coverTests(String[] args, TestResults res, long[] referenceNanos,
+                                            MetricsRegistry metrics) throws IOException {
+         String cover = optionValue(args, "--cover");
+         if (cover == null || cover.equals("greedy")) {
+             String offHeapCover = optionValue(args, "--offheap-cover");
+             if (offHeapCover != null) { // cover from compressed rows mapped from a temp file in this directory
+                 return ConciseSetGenerator.compressedSetCover(res, Path.of(offHeapCover), metrics);
+             }
+             return ConciseSetGenerator.setCover(res, metrics);
+         }
+         if (cover.equals("reduced")) { // the reduction sizes and ratio go to the metrics
+             return ConciseSetGenerator.reducedSetCover(res, metrics);
+         }
+         if (cover.equals("weighted")) { // minimise total run time, estimated from argument sizes if none was measured
+             boolean measured = Arrays.stream(referenceNanos).anyMatch(nanos -> nanos >= 0);
+             return ConciseSetGenerator.weightedSetCover(res, measured ? TestCostModel.fromMeasured(referenceNanos)
+                 : TestCostModel.estimateCosts(res));
+         }
+         if (cover.equals("parallel")) { // same cover as greedy, with the gains of each round evaluated on --jobs threads
+             String jobs = optionValue(args, "--jobs");
+             return ConciseSetGenerator.parallelSetCover(res,
+                 jobs != null ? Integer.parseInt(jobs) : Runtime.getRuntime().availableProcessors());
+         }
+         if (cover.equals("exact")) { // search for a minimum cover for at most the budget, falling back to the best found
+             String budget = optionValue(args, "--cover-budget-ms");
+             ExactCoverSolver.Result result = ConciseSetGenerator.exactSetCover(res,
+                 budget != null ? Long.parseLong(budget) : 10_000);
+             metrics.gauge("feat_cover_exact_optimal", "Whether the exact cover was proven minimum",
+                 () -> result.isOptimal() ? 1 : 0);
+             return ConciseSetGenerator.toTestCases(res, result.getCover());
+         }
+         throw new IllegalArgumentException("unknown --cover algorithm: " + cover);
+    }
+
+    /**
+     * This method is the entry point of a shard worker launched by a ShardCoordinator: it generates the same compact
+     * base set as the coordinator (from the same seed), tests every implementation on its own shard of that set only,
+     * computing only the shard's test cases, and writes the results to the shard file.
+     * @param args String[] of paths to files necessary for FEAT, including "--shard I/N" and "--shard-out FILE"
+     * @throws IOException if a file cant be read or written or a file path is invalid
+     * @throws InterruptedException if computeExpectedResults() or runTests() is interrupted
+     * @throws InvalidConfigException if the input file cant be parsed i.e. the input file is invalid
+     */
+    static void runShard(String[] args) throws IOException, InvalidConfigException, InterruptedException {
+        String[] shard = optionValue(args, "--shard").split("/");
+        MetricsRegistry metrics = newMetrics(args);
+        ConfigFile configFile = parseConfig(args, metrics);
+        try (ProgressReporter progress = newProgress(args)) { // reported to the worker's log
+            List<TestCase> baseTests = genBaseTests(args, configFile, optionValue(args, "--seed"), metrics, progress);
+            int numShards = Integer.parseInt(shard[1]);
+            int start = ShardCoordinator.shardStart(baseTests.size(), Integer.parseInt(shard[0]), numShards);
+            int end = ShardCoordinator.shardStart(baseTests.size(), Integer.parseInt(shard[0]) + 1, numShards);
+            TestResults res = runTests(args, configFile, baseTests.subList(start, end), metrics, progress, null,
+                null);
+            ShardCoordinator.writeShard(Path.of(optionValue(args, "--shard-out")), start, res);
+        }
+        writeMetrics(args, metrics);
+    }
+
+    /**
+     * This helper method parses the config file named by the first argument.
+     * @param args String[] of paths to files necessary for FEAT
+     * @param metrics the registry parsing is measured in
+     * @return the parsed config file
+     * @throws IOException if the file cant be read
+     * @throws InvalidConfigException if the input file cant be parsed i.e. the input file is invalid
+     */
+    static ConfigFile parseConfig(String[] args, MetricsRegistry metrics) throws IOException, InvalidConfigException {
+        ConfigFileParser parser = new ConfigFileParser(); // create a config file parser object
+        parser.setMetrics(metrics);
+        return parser.parse(parser.readFile(args[0])); // create a config file by parsing the file in the config path
+    }
+
+    /**
+     * This helper method generates the base test set described by a config file, in compact form if holding it
+     * would exceed the "--heap-budget-mb" flag (see BaseSetGenerator.genCompactBaseSet()), or if testing is split
+     * into shards, so that neither the coordinator nor any worker holds every test case.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file
+     * @param seed the seed for random generation, or null for a different base set on every run
+     * @param metrics the registry generation is measured in
+     * @param progress the reporter generation reports its progress to
+     * @return the base test set
+     * @throws InvalidConfigException if the config file describes a base set that cant be held, e.g. whose random
+     *                                tests alone exceed the "--heap-budget-mb" flag
+     */
+    private static List<TestCase> genBaseTests(String[] args, ConfigFile configFile, String seed,
+                                               MetricsRegistry metrics, ProgressReporter progress)
+            throws InvalidConfigException {
+        BaseSetGenerator bSetGen = new BaseSetGenerator(configFile.getNodes(),configFile.getNumRand()); // pass the nodes and num rand,
+        bSetGen.setMetrics(metrics);
+        bSetGen.setProgress(progress);
+        if (seed != null) {
+            bSetGen.setSeed(Long.parseLong(seed));
+        }
+        String heapBudget = optionValue(args, "--heap-budget-mb");
+        if (heapBudget != null) {
+            bSetGen.setHeapBudget(Long.parseLong(heapBudget) * 1024 * 1024);
+        }
+        try {
+            if (optionValue(args, "--shards") != null || optionValue(args, "--shard") != null) { // indexed alike everywhere
+                return bSetGen.genCompactBaseSet();
+            }
+            return bSetGen.genBaseSet(); // then call gen base set
+        } catch (IllegalStateException e) { // e.g. the random tests alone exceed the heap budget
+            throw new InvalidConfigException(e.getMessage());
+        }
+    }
+
+    /**
+     * This helper method runs every buggy implementation on the given test cases, using the tester selected by the flags.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file
+     * @param baseTests the test cases to run
+     * @param metrics the registry testing is measured in (by the ParallelTester only)
+     * @param progress the reporter testing reports its progress to (by the ParallelTester only)
+     * @param referenceNanos receives the reference solution's run time on each test case in nanoseconds (by the
+     *                       ParallelTester only, and left as is by the Tester); may be null
+     * @param pythonPool the pool to borrow Python interpreters from, or null for a pool of the executor's own
+     * @return the results of testing
+     * @throws IOException if a file cant be read or a file path is invalid
+     * @throws InterruptedException if computeExpectedResults() or runTests() is interrupted
+     */
+    private static TestResults runTests(String[] args, ConfigFile configFile, List<TestCase> baseTests,
+                                        MetricsRegistry metrics, ProgressReporter progress, long[] referenceNanos,
+                                        PythonWorkerPool pythonPool)
+            throws IOException, InterruptedException, InvalidConfigException {
          String pathToBuggy = args[1];
          String refSoln = args[2];
-         ConfigFileParser parser = new ConfigFileParser(); // create a config file parser object
-         ConfigFile configFile = parser.parse(parser.readFile(configPath)); // create a config file by parsing the file in the config path
-         BaseSetGenerator bSetGen = new BaseSetGenerator(configFile.getNodes(),configFile.getNumRand()); // pass the nodes and num rand,
-         List<TestCase> baseTests = bSetGen.genBaseSet(); // then call gen base set
-         fname= configFile.getFuncName();
-         Tester tester = new Tester(configFile.getFuncName(),refSoln,pathToBuggy,baseTests); // create a tester obj and pass to constructor
-         tester.computeExpectedResults(); // compute expected results
+         String jobs = optionValue(args, "--jobs");
+         String backend = optionValue(args, "--backend");
+         if (jobs == null && backend == null) {
+             Tester tester = new Tester(configFile.getFuncName(),refSoln,pathToBuggy,baseTests); // create a tester obj and pass to constructor
+             tester.computeExpectedResults(); // compute expected results
+             return tester.runTests();
+         }
+         // run on a pool of persistent interpreters instead
+         ParallelTester tester = newParallelTester(args, configFile, baseTests, metrics, progress, pythonPool);
+         tester.computeExpectedResults();
+         if (referenceNanos != null) {
+             System.arraycopy(tester.getReferenceNanos(), 0, referenceNanos, 0, referenceNanos.length);
+         }
          TestResults res = tester.runTests();
-        return ConciseSetGenerator.setCover(res);} // get the concise set
+         reportMismatches(tester);
+         return res;
+    }
+
+    /**
+     * This helper method creates a ParallelTester configured by the flags.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file
+     * @param baseTests the test cases to run
+     * @param metrics the registry testing is measured in
+     * @param progress the reporter testing reports its progress to
+     * @param pythonPool the pool to borrow Python interpreters from, or null for a pool of the executor's own
+     * @return the tester
+     * @throws IOException if the implementations cant be listed or loaded
+     */
+    private static ParallelTester newParallelTester(String[] args, ConfigFile configFile, List<TestCase> baseTests,
+                                                    MetricsRegistry metrics, ProgressReporter progress,
+                                                    PythonWorkerPool pythonPool) throws IOException {
+         ParallelTester tester = new ParallelTester(newExecutor(args, configFile, pythonPool),baseTests);
+         tester.setMetrics(metrics);
+         tester.setProgress(progress);
+         tester.setReportMismatches(hasFlag(args, "--report-mismatches")); // costs a full rerun per caught implementation
+         String jobs = optionValue(args, "--jobs");
+         if (jobs != null) {
+             tester.setParallelism(Integer.parseInt(jobs));
+         }
+         String multiple = optionValue(args, "--timeout-multiple");
+         if (multiple != null) { // kill implementations that run much longer than the reference
+             tester.setAdaptiveTimeout(Double.parseDouble(multiple), timeoutFloorMillis(args));
+         }
+         String cacheDir = optionValue(args, "--cache");
+         if (cacheDir != null) { // reuse reference outputs from earlier runs
+             Path dir = Path.of(cacheDir);
+             String shard = optionValue(args, "--shard");
+             if (shard != null) { // workers never share a cache, whose rows would each hold only one shard
+                 dir = dir.resolve("shard-" + shard.replace("/", "-of-"));
+             }
+             tester.setCacheDir(dir);
+         }
+         return tester;
+    }
+
+    /**
+     * This helper method prints how each implementation was caught, as recorded by a tester given the
+     * "--report-mismatches" flag (and nothing otherwise).
+     * @param tester the tester that has run the tests
+     */
+    private static void reportMismatches(ParallelTester tester) {
+         for (Map.Entry<String, ParallelTester.Mismatch> entry : tester.getMismatches().entrySet()) {
+             ParallelTester.Mismatch mismatch = entry.getValue();
+             System.err.println("mismatch: " + entry.getKey() + " on " + mismatch.getTest() + ": expected "
+                 + mismatch.getExpected() + ", got " + mismatch.getActual());
+         }
+    }
+
+    /**
+     * This helper method creates the executor selected by the "--backend" flag: Python files by default, or Java
+     * stand-ins loaded from a jar.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param configFile the parsed config file
+     * @param pythonPool the pool to borrow Python interpreters from, or null for a pool of the executor's own
+     * @return the executor
+     * @throws IOException if the implementations cant be listed or loaded
+     */
+    private static AExecutor newExecutor(String[] args, ConfigFile configFile, PythonWorkerPool pythonPool)
+            throws IOException {
+        String pathToBuggy = args[1];
+        String refSoln = args[2];
+        if ("java".equals(optionValue(args, "--backend"))) { // run Java stand-ins in this JVM instead of Python files
+            JavaExecutor javaExecutor = new JavaExecutor(configFile.getFuncName());
+            javaExecutor.registerJar(Path.of(pathToBuggy));
+            javaExecutor.setReference(refSoln);
+            return javaExecutor;
+        }
+        if (pythonPool != null) { // keep interpreters warm across calls, reused while their file is unchanged
+            return new PythonExecutor(pythonPool,configFile.getFuncName(),refSoln,pathToBuggy);
+        }
+        return new PythonExecutor("python3",configFile.getFuncName(),refSoln,pathToBuggy);
+    }
+
+    /**
+     * This helper method creates the registry selected by the "--metrics" flag: a fresh one if metrics are to be
+     * written, or the disabled registry (which keeps nothing) otherwise.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @return the registry every stage is measured in
+     */
+    static MetricsRegistry newMetrics(String[] args) {
+        return optionValue(args, "--metrics") != null ? new MetricsRegistry() : MetricsRegistry.DISABLED;
+    }
+
+    /**
+     * This helper method creates the reporter selected by the "--progress" flag: one that prints to stderr at the given
+     * interval (in seconds), or the disabled reporter (which prints nothing) otherwise.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @return the reporter every stage reports its progress to; the caller must close it
+     */
+    static ProgressReporter newProgress(String[] args) {
+        String interval = optionValue(args, "--progress");
+        if (interval == null) {
+            return ProgressReporter.DISABLED;
+        }
+        return new ProgressReporter(System.err, (long) (Double.parseDouble(interval) * 1000));
+    }
+
+    /**
+     * This helper method writes the metrics of a run to the directory named by the "--metrics" flag, if any; a shard
+     * worker writes to its own subdirectory, so that workers never overwrite each other's metrics.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param metrics the registry every stage was measured in
+     * @throws IOException if the metrics cant be written
+     */
+    static void writeMetrics(String[] args, MetricsRegistry metrics) throws IOException {
+        String metricsDir = optionValue(args, "--metrics");
+        if (metricsDir == null) {
+            return;
+        }
+        Path dir = Path.of(metricsDir);
+        String shard = optionValue(args, "--shard");
+        if (shard != null) {
+            dir = dir.resolve("shard-" + shard.replace("/", "-of-"));
+        }
+        metrics.write(dir);
+    }
+
+    /**
+     * This helper method deletes a directory and everything in it.
+     * @param dir the directory
+     * @throws IOException if a file cant be deleted
+     */
+    private static void deleteTree(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList(); // children before their parents
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * This helper method builds the command that launches a shard worker: this class, in a fresh JVM with the same
+     * class path, with the same arguments as this run except that the number of shards is dropped, the seed fixed,
+     * and "--jobs N" split evenly between the workers, so that they execute at most N tests at once in total.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param seed the seed every worker generates its base set from
+     * @param numShards the number of workers
+     * @return the command, to which the coordinator appends the shard flags
+     */
+    private static List<String> workerCommand(String[] args, String seed, int numShards) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        for (int i = 0; i < args.length; i++) {
+            if (i >= 3 && (args[i].equals("--shards") || args[i].equals("--seed") || args[i].equals("--jobs"))
+                    && i + 1 < args.length) {
+                i++; // skip the flag and its value
+            } else {
+                command.add(args[i]);
+            }
+        }
+        command.add("--seed");
+        command.add(seed);
+        String jobs = optionValue(args, "--jobs");
+        if (jobs != null) { // each worker gets its share of the threads, but at least one
+            command.add("--jobs");
+            command.add(Integer.toString(Math.max(1, Integer.parseInt(jobs) / numShards)));
+        }
+        return command;
+    }
+
+    /**
+     * This helper method returns the least time an implementation is given with "--timeout-multiple".
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @return the value of the "--timeout-floor-ms" flag, or DEFAULT_TIMEOUT_FLOOR_MILLIS if it is absent
+     */
+    private static long timeoutFloorMillis(String[] args) {
+        String floor = optionValue(args, "--timeout-floor-ms");
+        return floor != null ? Long.parseLong(floor) : DEFAULT_TIMEOUT_FLOOR_MILLIS;
+    }
+
+    /**
+     * This helper method looks up the value of an optional "--name value" flag that follows the three positional arguments.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param name the name of the flag, including the leading dashes
+     * @return the value following the flag, or null if the flag is absent
+     */
+    static String optionValue(String[] args, String name) {
+        for (int i = 3; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This helper method checks for an optional "--name" flag, without a value, that follows the three positional arguments.
+     * @param args String[] of paths to files necessary for FEAT, optionally followed by flags
+     * @param name the name of the flag, including the leading dashes
+     * @return true if the flag is present
+     */
+    static boolean hasFlag(String[] args, String name) {
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
  }
\ No newline at end of file
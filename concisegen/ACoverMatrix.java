@@ -0,0 +1,129 @@
+package main.rice.concisegen;
+
+import java.util.Set;
+
+/**
+ * An abstract class whose instances represent the results of testing as a matrix, with
+ * one row per test case and one column per file, for use as the input to the set cover
+ * algorithms in ConciseSetGenerator. Rows are never mutated; the set of files that remain
+ * uncovered during a cover is tracked by the caller as a long[] bitset over the columns.
+ * Subclasses decide how the rows themselves are stored.
+ */
+public abstract class ACoverMatrix {
+
+    /**
+     * Maps each column back to the file (index) that it represents.
+     */
+    protected int[] colToFile;
+
+    /**
+     * A mask with one bit set for each column representing a file in the wrong set.
+     */
+    protected long[] wrongMask;
+
+    /**
+     * The number of longs in a bitset over the columns.
+     */
+    protected int numWords;
+
+    /**
+     * Returns the number of test cases (rows) in this matrix.
+     *
+     * @return the number of test cases
+     */
+    public abstract int numCases();
+
+    /**
+     * Computes the number of uncovered files that would be caught by the given test
+     * case, i.e. popcount(row AND uncovered).
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns
+     * @return the number of heretofore-uncovered files caught by the test case
+     */
+    public abstract int gain(int caseIndex, long[] uncovered);
+
+    /**
+     * Marks every file caught by the given test case as covered, by clearing its bits
+     * in the input mask.
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns; mutated in place
+     */
+    public abstract void cover(int caseIndex, long[] uncovered);
+
+    /**
+     * Returns the set of files caught by the given test case.
+     *
+     * @param caseIndex the index of the test case
+     * @return the set of files (by their original index) caught by the test case
+     */
+    public abstract Set<Integer> getFiles(int caseIndex);
+
+    /**
+     * Returns the number of files (columns) in this matrix.
+     *
+     * @return the number of files
+     */
+    public int numFiles() {
+        return this.colToFile.length;
+    }
+
+    /**
+     * Creates a fresh mask in which every column is marked as uncovered.
+     *
+     * @return a mask with one bit set per column
+     */
+    public long[] newUncoveredMask() {
+        long[] mask = new long[this.numWords];
+        for (int col = 0; col < this.colToFile.length; col++) {
+            setBit(mask, col);
+        }
+        return mask;
+    }
+
+    /**
+     * Determines whether any file in the wrong set is still uncovered.
+     *
+     * @param uncovered the mask of uncovered columns
+     * @return true if at least one file in the wrong set is still uncovered
+     */
+    public boolean hasUncoveredWrong(long[] uncovered) {
+        for (int word = 0; word < this.numWords; word++) {
+            if ((this.wrongMask[word] & uncovered[word]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the mask of columns representing files in the wrong set; callers must not
+     * mutate it.
+     *
+     * @return the wrong set mask
+     */
+    long[] getWrongMask() {
+        return this.wrongMask;
+    }
+
+    /**
+     * Returns the file (index) represented by the given column.
+     *
+     * @param col the column
+     * @return the file represented by col
+     */
+    int getFile(int col) {
+        return this.colToFile[col];
+    }
+
+    /**
+     * Helper function for setting a single bit within a bitset.
+     *
+     * @param bits the bitset to mutate
+     * @param col  the index of the bit to set
+     */
+    protected static void setBit(long[] bits, int col) {
+        bits[col >>> 6] |= 1L << (col & 63);
+    }
+}
@@ -0,0 +1,149 @@
+package main.rice.concisegen;
+
+import java.util.*;
+
+/**
+ * An immutable, bit-packed, on-heap representation of the results of testing. Each file
+ * that was caught by at least one test case (or that appears in the wrong set) is
+ * assigned a dense column index, and each test case (row) stores the files that it
+ * caught as a long[] bitset over those columns.
+ */
+public class BitCoverMatrix extends ACoverMatrix {
+
+    /**
+     * The files caught by each test case; rows[i] is a bitset over the dense columns.
+     */
+    private final long[][] rows;
+
+    /**
+     * Constructor for a BitCoverMatrix; packs the input mapping from test case (index i)
+     * to the set of files that it caught into bitsets. Columns are assigned in ascending
+     * order of file index.
+     *
+     * @param caseToFiles a list mapping each test case to the set of files it caught
+     * @param wrongSet    the set of all files that were caught by at least one test case
+     */
+    public BitCoverMatrix(List<Set<Integer>> caseToFiles, Set<Integer> wrongSet) {
+        // Collect every file that is mentioned anywhere, in sorted order
+        SortedSet<Integer> allFiles = new TreeSet<>(wrongSet);
+        for (Set<Integer> files : caseToFiles) {
+            allFiles.addAll(files);
+        }
+
+        // Assign a dense column to each file
+        this.colToFile = new int[allFiles.size()];
+        Map<Integer, Integer> fileToCol = new HashMap<>();
+        int col = 0;
+        for (int file : allFiles) {
+            this.colToFile[col] = file;
+            fileToCol.put(file, col);
+            col++;
+        }
+        this.numWords = (this.colToFile.length + 63) >>> 6;
+
+        // Pack each row
+        this.rows = new long[caseToFiles.size()][];
+        for (int caseIndex = 0; caseIndex < caseToFiles.size(); caseIndex++) {
+            long[] row = new long[this.numWords];
+            for (int file : caseToFiles.get(caseIndex)) {
+                setBit(row, fileToCol.get(file));
+            }
+            this.rows[caseIndex] = row;
+        }
+
+        // Pack the wrong set
+        this.wrongMask = new long[this.numWords];
+        for (int file : wrongSet) {
+            setBit(this.wrongMask, fileToCol.get(file));
+        }
+    }
+
+    /**
+     * Constructor for a BitCoverMatrix that has already been packed, e.g. the result of
+     * reducing a larger matrix.
+     *
+     * @param rows      the files caught by each test case, as bitsets over the columns
+     * @param wrongMask a mask of the columns representing files in the wrong set
+     * @param colToFile maps each column back to the file (index) that it represents
+     */
+    BitCoverMatrix(long[][] rows, long[] wrongMask, int[] colToFile) {
+        this.rows = rows;
+        this.wrongMask = wrongMask;
+        this.colToFile = colToFile;
+        this.numWords = (colToFile.length + 63) >>> 6;
+    }
+
+    /**
+     * Returns the number of test cases (rows) in this matrix.
+     *
+     * @return the number of test cases
+     */
+    @Override
+    public int numCases() {
+        return this.rows.length;
+    }
+
+    /**
+     * Computes the number of uncovered files that would be caught by the given test
+     * case, i.e. popcount(row AND uncovered).
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns
+     * @return the number of heretofore-uncovered files caught by the test case
+     */
+    @Override
+    public int gain(int caseIndex, long[] uncovered) {
+        long[] row = this.rows[caseIndex];
+        int gain = 0;
+        for (int word = 0; word < this.numWords; word++) {
+            gain += Long.bitCount(row[word] & uncovered[word]);
+        }
+        return gain;
+    }
+
+    /**
+     * Marks every file caught by the given test case as covered, by clearing its bits
+     * in the input mask.
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns; mutated in place
+     */
+    @Override
+    public void cover(int caseIndex, long[] uncovered) {
+        long[] row = this.rows[caseIndex];
+        for (int word = 0; word < this.numWords; word++) {
+            uncovered[word] &= ~row[word];
+        }
+    }
+
+    /**
+     * Returns the (unmasked) bitset of the given test case; callers must not mutate it.
+     *
+     * @param caseIndex the index of the test case
+     * @return the bitset of columns caught by the test case
+     */
+    long[] getRow(int caseIndex) {
+        return this.rows[caseIndex];
+    }
+
+    /**
+     * Returns the set of files caught by the given test case.
+     *
+     * @param caseIndex the index of the test case
+     * @return the set of files (by their original index) caught by the test case
+     */
+    @Override
+    public Set<Integer> getFiles(int caseIndex) {
+        long[] row = this.rows[caseIndex];
+        Set<Integer> files = new HashSet<>();
+        for (int word = 0; word < this.numWords; word++) {
+            long bits = row[word];
+            while (bits != 0) {
+                int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                files.add(this.colToFile[col]);
+                bits &= bits - 1;
+            }
+        }
+        return files;
+    }
+}
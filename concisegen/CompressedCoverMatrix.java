@@ -0,0 +1,518 @@
+package main.rice.concisegen;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compressed representation of the results of testing, intended for base sets that are
+ * too large to hold as a List of Sets (or even as uncompressed bitsets) on the heap.
+ * Column i represents file i. Following the design of roaring bitmaps, the columns of
+ * each row are split into chunks of 65536, and each non-empty chunk is stored in
+ * whichever container is smaller: a sorted array of 16-bit offsets (for sparse chunks)
+ * or a bitmap (for dense chunks).
+ *
+ * All rows live in ByteBuffers, which are either a byte[] on the heap or read-only
+ * memory-mapped segments of a file; only the offset of each row is kept as a Java object.
+ * Instances are built row by row with a Writer, so the full matrix never needs to exist
+ * in any other form. A matrix backed by a file owns it: closing the matrix unmaps the
+ * file and deletes it.
+ *
+ * Each row is encoded as the number of containers (a char), followed by each container:
+ * its chunk key (a char), its type (a byte), its length (a char; the number of offsets
+ * for an array container, or the number of longs for a bitmap container), and then its
+ * payload.
+ */
+public class CompressedCoverMatrix extends ACoverMatrix implements Closeable {
+
+    /**
+     * The number of columns in each chunk.
+     */
+    private static final int CHUNK_BITS = 1 << 16;
+
+    /**
+     * The container type for a sorted array of 16-bit offsets.
+     */
+    private static final byte ARRAY = 0;
+
+    /**
+     * The container type for a bitmap.
+     */
+    private static final byte BITMAP = 1;
+
+    /**
+     * The maximum number of bytes in a single mapped segment of a backing file.
+     */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /**
+     * The segments holding the encoded rows; a row never spans two segments.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * The offset of each encoded row; the segment is offset / SEGMENT_BYTES.
+     */
+    private final long[] offsets;
+
+    /**
+     * The backing file, or null if the rows live on the heap.
+     */
+    private final Path file;
+
+    /**
+     * Constructor for a CompressedCoverMatrix; only called by Writer.build().
+     *
+     * @param segments  the segments holding the encoded rows
+     * @param offsets   the offset of each encoded row
+     * @param file      the backing file, or null if the rows live on the heap
+     * @param numFiles  the number of files (columns)
+     * @param wrongMask a mask of the files caught by at least one test case
+     */
+    private CompressedCoverMatrix(ByteBuffer[] segments, long[] offsets, Path file,
+                                  int numFiles, long[] wrongMask) {
+        this.segments = segments;
+        this.offsets = offsets;
+        this.file = file;
+        this.colToFile = new int[numFiles];
+        for (int col = 0; col < numFiles; col++) {
+            this.colToFile[col] = col;
+        }
+        this.numWords = (numFiles + 63) >>> 6;
+        this.wrongMask = wrongMask;
+    }
+
+    /**
+     * Returns the number of test cases (rows) in this matrix.
+     *
+     * @return the number of test cases
+     */
+    @Override
+    public int numCases() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Computes the number of uncovered files that would be caught by the given test
+     * case, working directly on the encoded containers.
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns
+     * @return the number of heretofore-uncovered files caught by the test case
+     */
+    @Override
+    public int gain(int caseIndex, long[] uncovered) {
+        ByteBuffer buf = this.segment(caseIndex);
+        int pos = this.position(caseIndex);
+        int numContainers = buf.getChar(pos);
+        pos += 2;
+
+        int gain = 0;
+        for (int container = 0; container < numContainers; container++) {
+            int base = buf.getChar(pos) * CHUNK_BITS;
+            byte type = buf.get(pos + 2);
+            int length = buf.getChar(pos + 3);
+            pos += 5;
+            if (type == ARRAY) {
+                for (int idx = 0; idx < length; idx++, pos += 2) {
+                    int col = base + buf.getChar(pos);
+                    gain += (int) ((uncovered[col >>> 6] >>> (col & 63)) & 1L);
+                }
+            } else {
+                int firstWord = base >>> 6;
+                for (int word = 0; word < length; word++, pos += 8) {
+                    gain += Long.bitCount(buf.getLong(pos) & uncovered[firstWord + word]);
+                }
+            }
+        }
+        return gain;
+    }
+
+    /**
+     * Marks every file caught by the given test case as covered, working directly on
+     * the encoded containers.
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns; mutated in place
+     */
+    @Override
+    public void cover(int caseIndex, long[] uncovered) {
+        ByteBuffer buf = this.segment(caseIndex);
+        int pos = this.position(caseIndex);
+        int numContainers = buf.getChar(pos);
+        pos += 2;
+
+        for (int container = 0; container < numContainers; container++) {
+            int base = buf.getChar(pos) * CHUNK_BITS;
+            byte type = buf.get(pos + 2);
+            int length = buf.getChar(pos + 3);
+            pos += 5;
+            if (type == ARRAY) {
+                for (int idx = 0; idx < length; idx++, pos += 2) {
+                    int col = base + buf.getChar(pos);
+                    uncovered[col >>> 6] &= ~(1L << (col & 63));
+                }
+            } else {
+                int firstWord = base >>> 6;
+                for (int word = 0; word < length; word++, pos += 8) {
+                    uncovered[firstWord + word] &= ~buf.getLong(pos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the set of files caught by the given test case.
+     *
+     * @param caseIndex the index of the test case
+     * @return the set of files caught by the test case
+     */
+    @Override
+    public Set<Integer> getFiles(int caseIndex) {
+        // Cover a full mask, and collect every bit that was cleared
+        long[] before = this.newUncoveredMask();
+        long[] after = before.clone();
+        this.cover(caseIndex, after);
+        Set<Integer> files = new HashSet<>();
+        for (int word = 0; word < this.numWords; word++) {
+            long bits = before[word] & ~after[word];
+            while (bits != 0) {
+                files.add((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Releases the rows: unmaps the segments of the backing file (if there is one), and
+     * deletes it. The matrix must not be used afterwards.
+     *
+     * @throws IOException if the backing file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.file == null) {
+            return;
+        }
+        for (int seg = 0; seg < this.segments.length; seg++) {
+            if (this.segments[seg] instanceof MappedByteBuffer mapped) {
+                unmap(mapped);
+            }
+            this.segments[seg] = null;
+        }
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * Helper function that unmaps a segment right away, rather than whenever it is
+     * garbage collected; falls back to the latter if the JDK does not allow it.
+     *
+     * @param segment the mapped segment
+     */
+    private static void unmap(MappedByteBuffer segment) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class)
+                .invoke(theUnsafe.get(null), segment);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+        }
+    }
+
+    /**
+     * Helper function that returns the segment holding the given row.
+     *
+     * @param caseIndex the index of the test case
+     * @return the segment holding the encoded row
+     */
+    private ByteBuffer segment(int caseIndex) {
+        return this.segments[(int) (this.offsets[caseIndex] / SEGMENT_BYTES)];
+    }
+
+    /**
+     * Helper function that returns the position of the given row within its segment.
+     *
+     * @param caseIndex the index of the test case
+     * @return the position of the encoded row within its segment
+     */
+    private int position(int caseIndex) {
+        return (int) (this.offsets[caseIndex] % SEGMENT_BYTES);
+    }
+
+    /**
+     * Builds a CompressedCoverMatrix one row at a time, in test case order. Each row can
+     * be appended as soon as it is known and then discarded, as ParallelTester and
+     * ShardCoordinator do when testing for an off-heap cover.
+     */
+    public static class Writer {
+
+        /**
+         * The number of files (columns).
+         */
+        private final int numFiles;
+
+        /**
+         * The backing file, or null if the rows live on the heap.
+         */
+        private final Path file;
+
+        /**
+         * The stream that encoded rows are written to.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * The in-memory buffer behind out, or null if the rows live in a file.
+         */
+        private final ByteArrayOutputStream heapBytes;
+
+        /**
+         * The offset of each row written so far.
+         */
+        private long[] offsets;
+
+        /**
+         * The number of rows written so far.
+         */
+        private int numRows;
+
+        /**
+         * The number of bytes written so far.
+         */
+        private long size;
+
+        /**
+         * A mask of the files caught by at least one row written so far.
+         */
+        private final long[] wrongMask;
+
+        /**
+         * Constructor for a Writer whose rows live on the heap.
+         *
+         * @param numFiles the number of files (columns)
+         */
+        public Writer(int numFiles) {
+            this.numFiles = numFiles;
+            this.file = null;
+            this.heapBytes = new ByteArrayOutputStream();
+            this.out = new DataOutputStream(this.heapBytes);
+            this.offsets = new long[16];
+            this.wrongMask = new long[(numFiles + 63) >>> 6];
+        }
+
+        /**
+         * Constructor for a Writer whose rows live off-heap, in the given file, which
+         * will be memory-mapped when the matrix is built. The file is created (or
+         * truncated) immediately; it is deleted when the matrix built is closed, or by
+         * discard() if no matrix is built.
+         *
+         * @param numFiles the number of files (columns)
+         * @param file     the file that the rows will be written to
+         * @throws IOException if the file cannot be created
+         */
+        public Writer(int numFiles, Path file) throws IOException {
+            this.numFiles = numFiles;
+            this.file = file;
+            this.heapBytes = null;
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file.toFile()), 1 << 16));
+            this.offsets = new long[16];
+            this.wrongMask = new long[(numFiles + 63) >>> 6];
+        }
+
+        /**
+         * Creates a Writer whose rows live off-heap, in a new temporary file in the given
+         * directory, or on the heap if there is no directory.
+         *
+         * @param numFiles the number of files (columns)
+         * @param dir      the directory to hold the backing file, or null to keep the
+         *                 rows on the heap
+         * @return the writer
+         * @throws IOException if the backing file cannot be created
+         */
+        public static Writer open(int numFiles, Path dir) throws IOException {
+            return dir == null ? new Writer(numFiles)
+                : new Writer(numFiles, Files.createTempFile(dir, "feat-cover", ".bin"));
+        }
+
+        /**
+         * Appends the row for the next test case.
+         *
+         * @param caughtFiles the set of files caught by the test case
+         * @throws IOException if the row cannot be written
+         */
+        public void addRow(Collection<Integer> caughtFiles) throws IOException {
+            this.addRow(caughtFiles.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        /**
+         * Appends the row for the next test case.
+         *
+         * @param caughtFiles the files caught by the test case, in any order and without
+         *                    duplicates; not mutated
+         * @throws IOException if the row cannot be written
+         */
+        public void addRow(int[] caughtFiles) throws IOException {
+            int[] cols = caughtFiles.clone();
+            Arrays.sort(cols);
+            for (int idx = 0; idx < cols.length; idx++) {
+                if (cols[idx] < 0 || cols[idx] >= this.numFiles) {
+                    throw new IllegalArgumentException("file " + cols[idx]
+                        + " is outside of [0, " + this.numFiles + ")");
+                }
+                if (idx > 0 && cols[idx] == cols[idx - 1]) {
+                    throw new IllegalArgumentException("file " + cols[idx] + " is repeated");
+                }
+            }
+            byte[] row = encode(cols);
+
+            // Never let a row span two mapped segments
+            long segmentEnd = (this.size / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+            if (this.file != null && this.size + row.length > segmentEnd) {
+                this.out.write(new byte[(int) (segmentEnd - this.size)]);
+                this.size = segmentEnd;
+            }
+
+            if (this.numRows == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.numRows * 2);
+            }
+            this.offsets[this.numRows++] = this.size;
+            this.out.write(row);
+            this.size += row.length;
+
+            for (int col : cols) {
+                setBit(this.wrongMask, col);
+            }
+        }
+
+        /**
+         * Finishes writing and returns the matrix; no more rows may be added.
+         *
+         * @return the matrix containing every row added
+         * @throws IOException if the backing file cannot be mapped
+         */
+        public CompressedCoverMatrix build() throws IOException {
+            this.out.close();
+            long[] rowOffsets = Arrays.copyOf(this.offsets, this.numRows);
+
+            ByteBuffer[] segments;
+            if (this.file == null) {
+                segments = new ByteBuffer[]{ByteBuffer.wrap(this.heapBytes.toByteArray())};
+            } else {
+                try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+                    int numSegments = (int) Math.max(1, (this.size + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+                    segments = new ByteBuffer[numSegments];
+                    for (int seg = 0; seg < numSegments; seg++) {
+                        long start = seg * SEGMENT_BYTES;
+                        segments[seg] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_BYTES, this.size - start));
+                    }
+                }
+            }
+            return new CompressedCoverMatrix(segments, rowOffsets, this.file, this.numFiles,
+                this.wrongMask);
+        }
+
+        /**
+         * Abandons writing without building a matrix, deleting the backing file (if
+         * there is one).
+         *
+         * @throws IOException if the backing file cannot be deleted
+         */
+        public void discard() throws IOException {
+            this.out.close();
+            if (this.file != null) {
+                Files.deleteIfExists(this.file);
+            }
+        }
+
+        /**
+         * Helper function that encodes a single row.
+         *
+         * @param cols the sorted columns caught by the row
+         * @return the encoded row
+         */
+        private byte[] encode(int[] cols) {
+            // First pass: size every container, so the row can be encoded in one buffer
+            int rowBytes = 2;
+            for (int start = 0, end; start < cols.length; start = end) {
+                int key = cols[start] / CHUNK_BITS;
+                end = chunkEnd(cols, start, key);
+                rowBytes += 5 + Math.min((end - start) * 2, chunkWords(key) * 8);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(rowBytes);
+            int numContainersPos = buf.position();
+            buf.putChar((char) 0);
+
+            int numContainers = 0;
+            int start = 0;
+            while (start < cols.length) {
+                // Find the columns belonging to this chunk
+                int key = cols[start] / CHUNK_BITS;
+                int end = chunkEnd(cols, start, key);
+                int card = end - start;
+
+                // Use whichever container is smaller
+                int chunkWords = this.chunkWords(key);
+                buf.putChar((char) key);
+                if (card * 2 < chunkWords * 8) {
+                    buf.put(ARRAY).putChar((char) card);
+                    for (int idx = start; idx < end; idx++) {
+                        buf.putChar((char) (cols[idx] - key * CHUNK_BITS));
+                    }
+                } else {
+                    long[] bitmap = new long[chunkWords];
+                    for (int idx = start; idx < end; idx++) {
+                        setBit(bitmap, cols[idx] - key * CHUNK_BITS);
+                    }
+                    buf.put(BITMAP).putChar((char) chunkWords);
+                    for (long word : bitmap) {
+                        buf.putLong(word);
+                    }
+                }
+                numContainers++;
+                start = end;
+            }
+            buf.putChar(numContainersPos, (char) numContainers);
+            return buf.array();
+        }
+
+        /**
+         * Helper function that finds the end of the run of columns belonging to a chunk.
+         *
+         * @param cols  the sorted columns caught by the row
+         * @param start the index of the first column in the chunk
+         * @param key   the chunk key
+         * @return one past the index of the last column in the chunk
+         */
+        private static int chunkEnd(int[] cols, int start, int key) {
+            int end = start;
+            while (end < cols.length && cols[end] / CHUNK_BITS == key) {
+                end++;
+            }
+            return end;
+        }
+
+        /**
+         * Helper function that computes the number of longs in a bitmap container for
+         * the given chunk (the last chunk may be shorter than the others).
+         *
+         * @param key the chunk key
+         * @return the number of longs needed to cover the chunk
+         */
+        private int chunkWords(int key) {
+            int chunkCols = Math.min(CHUNK_BITS, this.numFiles - key * CHUNK_BITS);
+            return (chunkCols + 63) >>> 6;
+        }
+    }
+}
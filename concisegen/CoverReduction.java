@@ -0,0 +1,470 @@
+package main.rice.concisegen;
+
+import java.util.*;
+
+/**
+ * A preprocessing pass that shrinks a set cover problem before it is solved. The results
+ * of testing tend to be highly redundant, so the following reductions are applied
+ * repeatedly until none of them changes anything:
+ * <ul>
+ *     <li>test cases that are the only catcher of some file are pre-selected, and every
+ *     file that they catch is removed from the problem;</li>
+ *     <li>test cases that catch nothing (that is still uncovered) are dropped;</li>
+ *     <li>test cases that catch exactly the same files collapse into the one with the
+ *     lowest index;</li>
+ *     <li>test cases whose files are a strict subset of another test case's are dropped;
+ *     </li>
+ *     <li>files that are caught by exactly the same test cases are merged into one.</li>
+ * </ul>
+ * Every minimum cover of the reduced problem, together with the pre-selected test cases,
+ * is a minimum cover of the original problem. Note that merging files changes the gains
+ * seen by a greedy solver, so a greedy cover of the reduced problem is not guaranteed to
+ * match a greedy cover of the original.
+ */
+public class CoverReduction {
+
+    /**
+     * The reduced problem.
+     */
+    private final BitCoverMatrix reduced;
+
+    /**
+     * Maps each test case in the reduced problem back to its index in the original.
+     */
+    private final int[] reducedToOriginal;
+
+    /**
+     * The (original) indices of the test cases that must be part of any cover.
+     */
+    private final List<Integer> preselected;
+
+    /**
+     * The number of test cases in the original problem.
+     */
+    private final int originalCases;
+
+    /**
+     * The number of files in the original problem.
+     */
+    private final int originalFiles;
+
+    /**
+     * Constructor for a CoverReduction; reduces the input problem.
+     *
+     * @param matrix the original problem
+     */
+    public CoverReduction(BitCoverMatrix matrix) {
+        this.originalCases = matrix.numCases();
+        this.originalFiles = matrix.numFiles();
+        this.preselected = new ArrayList<>();
+
+        int numWords = (matrix.numFiles() + 63) >>> 6;
+        boolean[] rowActive = new boolean[matrix.numCases()];
+        Arrays.fill(rowActive, true);
+
+        // Only files in the wrong set need to be covered
+        long[] colActive = matrix.getWrongMask().clone();
+
+        boolean changed = true;
+        while (changed) {
+            changed = this.selectEssential(matrix, rowActive, colActive);
+            changed |= dropRedundantRows(matrix, rowActive, colActive, numWords);
+            changed |= mergeIdenticalCols(matrix, rowActive, colActive);
+        }
+
+        // Compact the surviving rows and columns into a new matrix
+        int[] colMap = new int[matrix.numFiles()];
+        List<Integer> keptCols = new ArrayList<>();
+        for (int col = 0; col < matrix.numFiles(); col++) {
+            if (testBit(colActive, col)) {
+                colMap[col] = keptCols.size();
+                keptCols.add(col);
+            }
+        }
+        int[] colToFile = new int[keptCols.size()];
+        for (int newCol = 0; newCol < colToFile.length; newCol++) {
+            colToFile[newCol] = matrix.getFile(keptCols.get(newCol));
+        }
+        int newWords = (colToFile.length + 63) >>> 6;
+
+        List<long[]> rows = new ArrayList<>();
+        List<Integer> rowMap = new ArrayList<>();
+        for (int caseIndex = 0; caseIndex < matrix.numCases(); caseIndex++) {
+            if (!rowActive[caseIndex]) {
+                continue;
+            }
+            long[] row = new long[newWords];
+            for (int newCol = 0; newCol < colToFile.length; newCol++) {
+                if (testBit(matrix.getRow(caseIndex), keptCols.get(newCol))) {
+                    row[newCol >>> 6] |= 1L << (newCol & 63);
+                }
+            }
+            rows.add(row);
+            rowMap.add(caseIndex);
+        }
+
+        long[] wrongMask = new long[newWords];
+        for (int newCol = 0; newCol < colToFile.length; newCol++) {
+            wrongMask[newCol >>> 6] |= 1L << (newCol & 63);
+        }
+        this.reduced = new BitCoverMatrix(rows.toArray(new long[0][]), wrongMask, colToFile);
+        this.reducedToOriginal = rowMap.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the reduced problem.
+     *
+     * @return the reduced problem
+     */
+    public BitCoverMatrix getReduced() {
+        return this.reduced;
+    }
+
+    /**
+     * Returns the (original) indices of the test cases that must be part of any cover.
+     *
+     * @return the pre-selected test cases
+     */
+    public List<Integer> getPreselected() {
+        return this.preselected;
+    }
+
+    /**
+     * Maps a cover of the reduced problem back to a cover of the original problem,
+     * including the pre-selected test cases.
+     *
+     * @param reducedCover the indices of test cases in the reduced problem
+     * @return the corresponding original indices, preceded by the pre-selected ones
+     */
+    public List<Integer> expand(List<Integer> reducedCover) {
+        List<Integer> cover = new ArrayList<>(this.preselected);
+        for (int caseIndex : reducedCover) {
+            cover.add(this.reducedToOriginal[caseIndex]);
+        }
+        return cover;
+    }
+
+    /**
+     * Computes the ratio between the size (test cases times files) of the original
+     * problem and that of the reduced problem.
+     *
+     * @return the reduction ratio; larger is better
+     */
+    public double getReductionRatio() {
+        long before = (long) this.originalCases * this.originalFiles;
+        long after = (long) this.reduced.numCases() * this.reduced.numFiles();
+        return (double) before / Math.max(1, after);
+    }
+
+    /**
+     * Builds and returns a one-line summary of this reduction.
+     *
+     * @return a summary of the sizes before and after reduction
+     */
+    @Override
+    public String toString() {
+        return String.format("reduced %d cases x %d files to %d cases x %d files "
+                + "(%d pre-selected, ratio %.1fx)", this.originalCases, this.originalFiles,
+            this.reduced.numCases(), this.reduced.numFiles(), this.preselected.size(),
+            this.getReductionRatio());
+    }
+
+    /**
+     * Pre-selects every active test case that is the only catcher of some active file,
+     * and deactivates all of the files that it catches.
+     *
+     * @param matrix    the original problem
+     * @param rowActive which test cases are still part of the problem; mutated
+     * @param colActive which files are still part of the problem; mutated
+     * @return true if anything changed
+     */
+    private boolean selectEssential(BitCoverMatrix matrix, boolean[] rowActive,
+                                    long[] colActive) {
+        // For each file, count its catchers (saturating at 2) and remember the last one
+        int[] catchers = new int[matrix.numFiles()];
+        int[] lastCatcher = new int[matrix.numFiles()];
+        for (int caseIndex = 0; caseIndex < rowActive.length; caseIndex++) {
+            if (!rowActive[caseIndex]) {
+                continue;
+            }
+            long[] row = matrix.getRow(caseIndex);
+            for (int word = 0; word < row.length; word++) {
+                long bits = row[word] & colActive[word];
+                while (bits != 0) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (catchers[col] < 2) {
+                        catchers[col]++;
+                    }
+                    lastCatcher[col] = caseIndex;
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (int col = 0; col < catchers.length; col++) {
+            // The file may have been covered by an earlier essential test case
+            if (catchers[col] != 1 || !testBit(colActive, col)) {
+                continue;
+            }
+            int caseIndex = lastCatcher[col];
+            this.preselected.add(caseIndex);
+            rowActive[caseIndex] = false;
+            long[] row = matrix.getRow(caseIndex);
+            for (int word = 0; word < row.length; word++) {
+                colActive[word] &= ~row[word];
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Drops active test cases that catch nothing, that duplicate a test case with a
+     * lower index, or whose files are a strict subset of another test case's.
+     *
+     * @param matrix    the original problem
+     * @param rowActive which test cases are still part of the problem; mutated
+     * @param colActive which files are still part of the problem
+     * @param numWords  the number of longs in each bitset
+     * @return true if anything changed
+     */
+    private static boolean dropRedundantRows(BitCoverMatrix matrix, boolean[] rowActive,
+                                             long[] colActive, int numWords) {
+        boolean changed = false;
+
+        // Drop empty rows and collapse identical rows into the lowest index, computing
+        // the masked row and popcount of each survivor once
+        Set<BitKey> seen = new HashSet<>();
+        int[] survivors = new int[rowActive.length];
+        long[][] masked = new long[rowActive.length][];
+        int[] counts = new int[rowActive.length];
+        int numSurvivors = 0;
+        for (int caseIndex = 0; caseIndex < rowActive.length; caseIndex++) {
+            if (!rowActive[caseIndex]) {
+                continue;
+            }
+            long[] row = and(matrix.getRow(caseIndex), colActive, numWords);
+            BitKey key = new BitKey(row);
+            if (key.isEmpty() || !seen.add(key)) {
+                rowActive[caseIndex] = false;
+                changed = true;
+            } else {
+                survivors[numSurvivors] = caseIndex;
+                masked[numSurvivors] = row;
+                counts[numSurvivors] = popcount(row);
+                numSurvivors++;
+            }
+        }
+
+        // Visit the survivors by decreasing popcount (then increasing index), packed
+        // into longs so that sorting them boxes nothing
+        long[] order = new long[numSurvivors];
+        for (int pos = 0; pos < numSurvivors; pos++) {
+            order[pos] = ((long) (matrix.numFiles() - counts[pos]) << 32) | pos;
+        }
+        Arrays.sort(order);
+
+        // Since identical rows are gone, any row visited earlier that contains the
+        // current one does so strictly. A superset must contain every file of the
+        // current row, so only the kept rows catching its rarest file are compared
+        int[][] postings = new int[matrix.numFiles()][];
+        int[] postingSizes = new int[matrix.numFiles()];
+        for (long entry : order) {
+            int pos = (int) entry;
+            long[] row = masked[pos];
+            int rarest = -1;
+            for (int word = 0; word < numWords; word++) {
+                long bits = row[word];
+                while (bits != 0) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (rarest < 0 || postingSizes[col] < postingSizes[rarest]) {
+                        rarest = col;
+                    }
+                    bits &= bits - 1;
+                }
+            }
+
+            boolean dominated = false;
+            for (int idx = 0; idx < postingSizes[rarest] && !dominated; idx++) {
+                dominated = isSubset(row, masked[postings[rarest][idx]]);
+            }
+            if (dominated) {
+                rowActive[survivors[pos]] = false;
+                changed = true;
+                continue;
+            }
+
+            for (int word = 0; word < numWords; word++) {
+                long bits = row[word];
+                while (bits != 0) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (postings[col] == null) {
+                        postings[col] = new int[4];
+                    } else if (postingSizes[col] == postings[col].length) {
+                        postings[col] = Arrays.copyOf(postings[col], postingSizes[col] * 2);
+                    }
+                    postings[col][postingSizes[col]++] = pos;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Merges active files that are caught by exactly the same active test cases,
+     * keeping only the lowest column of each group.
+     *
+     * @param matrix    the original problem
+     * @param rowActive which test cases are still part of the problem
+     * @param colActive which files are still part of the problem; mutated
+     * @return true if anything changed
+     */
+    private static boolean mergeIdenticalCols(BitCoverMatrix matrix, boolean[] rowActive,
+                                              long[] colActive) {
+        // Transpose: for each active file, the bitset of active test cases catching it
+        int rowWords = (rowActive.length + 63) >>> 6;
+        long[][] cols = new long[matrix.numFiles()][];
+        for (int caseIndex = 0; caseIndex < rowActive.length; caseIndex++) {
+            if (!rowActive[caseIndex]) {
+                continue;
+            }
+            long[] row = matrix.getRow(caseIndex);
+            for (int word = 0; word < row.length; word++) {
+                long bits = row[word] & colActive[word];
+                while (bits != 0) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (cols[col] == null) {
+                        cols[col] = new long[rowWords];
+                    }
+                    cols[col][caseIndex >>> 6] |= 1L << (caseIndex & 63);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        boolean changed = false;
+        Set<BitKey> seen = new HashSet<>();
+        for (int col = 0; col < cols.length; col++) {
+            if (cols[col] != null && !seen.add(new BitKey(cols[col]))) {
+                colActive[col >>> 6] &= ~(1L << (col & 63));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Helper function that computes the bitwise and of two bitsets.
+     *
+     * @param bits1    the first bitset
+     * @param bits2    the second bitset
+     * @param numWords the number of longs in each bitset
+     * @return a new bitset equal to bits1 AND bits2
+     */
+    private static long[] and(long[] bits1, long[] bits2, int numWords) {
+        long[] result = new long[numWords];
+        for (int word = 0; word < numWords; word++) {
+            result[word] = bits1[word] & bits2[word];
+        }
+        return result;
+    }
+
+    /**
+     * Helper function that determines whether one bitset is a subset of another.
+     *
+     * @param subset   the candidate subset
+     * @param superset the candidate superset
+     * @return true if every bit set in subset is also set in superset
+     */
+    private static boolean isSubset(long[] subset, long[] superset) {
+        for (int word = 0; word < subset.length; word++) {
+            if ((subset[word] & ~superset[word]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper function that counts the bits set in a bitset.
+     *
+     * @param bits the bitset
+     * @return the number of bits set
+     */
+    private static int popcount(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Helper function that tests a single bit within a bitset.
+     *
+     * @param bits the bitset
+     * @param col  the index of the bit
+     * @return true if the bit is set
+     */
+    private static boolean testBit(long[] bits, int col) {
+        return (bits[col >>> 6] & (1L << (col & 63))) != 0;
+    }
+
+    /**
+     * A wrapper around a bitset that compares by value, so that bitsets can be used as
+     * keys in hash-based collections.
+     */
+    private static class BitKey {
+
+        /**
+         * The wrapped bitset.
+         */
+        private final long[] bits;
+
+        /**
+         * Constructor for a BitKey; wraps (without copying) the input bitset.
+         *
+         * @param bits the bitset to wrap
+         */
+        BitKey(long[] bits) {
+            this.bits = bits;
+        }
+
+        /**
+         * Determines whether no bits are set.
+         *
+         * @return true if the wrapped bitset is empty
+         */
+        boolean isEmpty() {
+            for (long word : this.bits) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compares this to the input object by value.
+         *
+         * @param obj the object to compare against
+         * @return true if obj wraps an equal bitset
+         */
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof BitKey other && Arrays.equals(this.bits, other.bits);
+        }
+
+        /**
+         * Computes a hash code based on the wrapped bitset.
+         *
+         * @return the hash code for this key
+         */
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.bits);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package main.rice.concisegen;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An exact (minimum) set cover solver based on branch-and-bound. The problem is first
+ * shrunk with a CoverReduction, and the smaller of the lazy greedy covers of the original
+ * and of the reduced problem is used as the initial incumbent, so the result is never
+ * larger than that of setCover (and is exactly that of setCover if nothing smaller is
+ * found). The search then repeatedly picks the uncovered file with the
+ * fewest catchers and branches on each test case that catches it, pruning any subtree
+ * whose lower bound cannot beat the incumbent. The top levels of the search tree are
+ * explored in parallel on a ForkJoinPool.
+ *
+ * Since the search is exponential in the worst case, it runs within a wall-clock budget;
+ * if the budget runs out, the best cover found so far is returned, and the result
+ * records that optimality was not proven.
+ */
+public class ExactCoverSolver {
+
+    /**
+     * The depth of the search tree up to which subtrees are forked as separate tasks.
+     */
+    private static final int FORK_DEPTH = 3;
+
+    /**
+     * The original problem.
+     */
+    private final BitCoverMatrix original;
+
+    /**
+     * The reduction that produced the problem being searched.
+     */
+    private final CoverReduction reduction;
+
+    /**
+     * The reduced problem being searched.
+     */
+    private final BitCoverMatrix matrix;
+
+    /**
+     * For each column in the reduced problem, the test cases that catch it, sorted by
+     * decreasing number of files caught.
+     */
+    private final int[][] colToCases;
+
+    /**
+     * The deadline for the search, as a System.nanoTime() value.
+     */
+    private long deadline;
+
+    /**
+     * Whether the search ran out of time before finishing.
+     */
+    private volatile boolean timedOut;
+
+    /**
+     * The best (smallest) cover of the reduced problem found so far, or null if the
+     * incumbent is still the greedy cover of the original problem.
+     */
+    private List<Integer> best;
+
+    /**
+     * The size of the incumbent, as a cover of the reduced problem (i.e. not counting
+     * the pre-selected test cases), readable without locking.
+     */
+    private volatile int bestSize;
+
+    /**
+     * Constructor for an ExactCoverSolver; reduces the input problem and prepares the
+     * column index used for branching.
+     *
+     * @param matrix the problem to solve
+     */
+    public ExactCoverSolver(BitCoverMatrix matrix) {
+        this.original = matrix;
+        this.reduction = new CoverReduction(matrix);
+        this.matrix = this.reduction.getReduced();
+
+        // Index the catchers of each column, larger test cases first
+        List<List<Integer>> catchers = new ArrayList<>();
+        for (int col = 0; col < this.matrix.numFiles(); col++) {
+            catchers.add(new ArrayList<>());
+        }
+        for (int caseIndex = 0; caseIndex < this.matrix.numCases(); caseIndex++) {
+            long[] row = this.matrix.getRow(caseIndex);
+            for (int word = 0; word < row.length; word++) {
+                long bits = row[word];
+                while (bits != 0) {
+                    catchers.get((word << 6) + Long.numberOfTrailingZeros(bits)).add(caseIndex);
+                    bits &= bits - 1;
+                }
+            }
+        }
+        long[] all = this.matrix.newUncoveredMask();
+        this.colToCases = new int[catchers.size()][];
+        for (int col = 0; col < catchers.size(); col++) {
+            List<Integer> cases = catchers.get(col);
+            cases.sort(Comparator.comparingInt((Integer caseIndex) ->
+                -this.matrix.gain(caseIndex, all)).thenComparingInt(caseIndex -> caseIndex));
+            this.colToCases[col] = cases.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Searches for a minimum cover within the given wall-clock budget.
+     *
+     * @param budgetMillis the maximum time to spend searching, in milliseconds
+     * @param parallelism  the number of threads to search with
+     * @return the best cover found, and whether it was proven to be minimum
+     */
+    public Result solve(long budgetMillis, int parallelism) {
+        this.deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        this.timedOut = false;
+
+        // Merging files changes the greedy gains, so either greedy cover may be smaller
+        List<Integer> greedy = ConciseSetGenerator.lazyGreedyCover(this.original);
+        List<Integer> reducedGreedy = ConciseSetGenerator.lazyGreedyCover(this.matrix);
+        this.best = null;
+        this.bestSize = greedy.size() - this.reduction.getPreselected().size();
+        if (reducedGreedy.size() < this.bestSize) {
+            this.best = reducedGreedy;
+            this.bestSize = reducedGreedy.size();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new SearchTask(this.matrix.newUncoveredMask(), new ArrayList<>(), 0));
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Integer> cover;
+        synchronized (this) {
+            cover = this.best == null ? greedy : this.reduction.expand(this.best);
+        }
+        return new Result(cover, !this.timedOut);
+    }
+
+    /**
+     * Replaces the incumbent if the input cover is strictly smaller.
+     *
+     * @param cover a complete cover of the reduced problem
+     */
+    private synchronized void offer(List<Integer> cover) {
+        if (cover.size() < this.bestSize) {
+            this.best = new ArrayList<>(cover);
+            this.bestSize = cover.size();
+        }
+    }
+
+    /**
+     * Computes a lower bound on the number of additional test cases needed to cover the
+     * uncovered files: the number of uncovered files whose sets of catchers are pairwise
+     * disjoint (each one needs its own test case).
+     *
+     * @param uncovered the mask of uncovered columns
+     * @return a lower bound on the number of test cases still needed
+     */
+    private int lowerBound(long[] uncovered) {
+        BitSet usedCases = new BitSet(this.matrix.numCases());
+        int bound = 0;
+        for (int word = 0; word < uncovered.length; word++) {
+            long bits = uncovered[word];
+            while (bits != 0) {
+                int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                boolean disjoint = true;
+                for (int caseIndex : this.colToCases[col]) {
+                    if (usedCases.get(caseIndex)) {
+                        disjoint = false;
+                        break;
+                    }
+                }
+                if (disjoint) {
+                    bound++;
+                    for (int caseIndex : this.colToCases[col]) {
+                        usedCases.set(caseIndex);
+                    }
+                }
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Finds the uncovered column with the fewest catchers, or -1 if every column is
+     * covered.
+     *
+     * @param uncovered the mask of uncovered columns
+     * @return the column to branch on
+     */
+    private int branchColumn(long[] uncovered) {
+        int bestCol = -1;
+        for (int word = 0; word < uncovered.length; word++) {
+            long bits = uncovered[word];
+            while (bits != 0) {
+                int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (bestCol == -1 || this.colToCases[col].length < this.colToCases[bestCol].length) {
+                    bestCol = col;
+                }
+            }
+        }
+        return bestCol;
+    }
+
+    /**
+     * A single node of the search tree; nodes near the root fork their children as
+     * separate tasks, while deeper nodes search their subtree sequentially.
+     */
+    private class SearchTask extends RecursiveAction {
+
+        /**
+         * The version of the serialized form of SearchTask (which is never serialized,
+         * but is Serializable as a ForkJoinTask).
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The mask of columns that are uncovered at this node.
+         */
+        private final long[] uncovered;
+
+        /**
+         * The test cases selected on the path from the root to this node.
+         */
+        private final List<Integer> chosen;
+
+        /**
+         * The depth of this node.
+         */
+        private final int depth;
+
+        /**
+         * Constructor for a SearchTask.
+         *
+         * @param uncovered the mask of columns that are uncovered at this node
+         * @param chosen    the test cases selected on the path to this node
+         * @param depth     the depth of this node
+         */
+        SearchTask(long[] uncovered, List<Integer> chosen, int depth) {
+            this.uncovered = uncovered;
+            this.chosen = chosen;
+            this.depth = depth;
+        }
+
+        /**
+         * Explores the subtree rooted at this node.
+         */
+        @Override
+        protected void compute() {
+            if (this.depth < FORK_DEPTH) {
+                List<SearchTask> children = new ArrayList<>();
+                int col = this.expand(children);
+                if (col != -1) {
+                    invokeAll(children);
+                }
+            } else {
+                this.search(this.uncovered, this.chosen);
+            }
+        }
+
+        /**
+         * Creates a child task for each test case that catches the branching column,
+         * unless this node is a leaf or can be pruned.
+         *
+         * @param children the list to add child tasks to; mutated
+         * @return the branching column, or -1 if no children were created
+         */
+        private int expand(List<SearchTask> children) {
+            if (!this.shouldExplore(this.uncovered, this.chosen)) {
+                return -1;
+            }
+            int col = branchColumn(this.uncovered);
+            for (int caseIndex : colToCases[col]) {
+                long[] next = this.uncovered.clone();
+                matrix.cover(caseIndex, next);
+                List<Integer> nextChosen = new ArrayList<>(this.chosen);
+                nextChosen.add(caseIndex);
+                children.add(new SearchTask(next, nextChosen, this.depth + 1));
+            }
+            return col;
+        }
+
+        /**
+         * Sequentially explores the subtree below the given state.
+         *
+         * @param uncovered the mask of uncovered columns; not mutated
+         * @param chosen    the test cases selected so far; restored before returning
+         */
+        private void search(long[] uncovered, List<Integer> chosen) {
+            if (!this.shouldExplore(uncovered, chosen)) {
+                return;
+            }
+            int col = branchColumn(uncovered);
+            for (int caseIndex : colToCases[col]) {
+                long[] next = uncovered.clone();
+                matrix.cover(caseIndex, next);
+                chosen.add(caseIndex);
+                this.search(next, chosen);
+                chosen.remove(chosen.size() - 1);
+            }
+        }
+
+        /**
+         * Handles complete covers, time-outs and pruning for a single node.
+         *
+         * @param uncovered the mask of uncovered columns
+         * @param chosen    the test cases selected so far
+         * @return true if the children of the node need to be explored
+         */
+        private boolean shouldExplore(long[] uncovered, List<Integer> chosen) {
+            if (timedOut) {
+                return false;
+            }
+            if (System.nanoTime() > deadline) {
+                timedOut = true;
+                return false;
+            }
+            if (branchColumn(uncovered) == -1) {
+                offer(chosen);
+                return false;
+            }
+            return chosen.size() + lowerBound(uncovered) < bestSize;
+        }
+    }
+
+    /**
+     * The outcome of a search: the best cover found, and whether it is proven minimum.
+     */
+    public static class Result {
+
+        /**
+         * The indices of the test cases in the best cover found.
+         */
+        private final List<Integer> cover;
+
+        /**
+         * Whether the search finished, proving that the cover is minimum.
+         */
+        private final boolean optimal;
+
+        /**
+         * Constructor for a Result.
+         *
+         * @param cover   the indices of the test cases in the best cover found
+         * @param optimal whether the cover is proven minimum
+         */
+        public Result(List<Integer> cover, boolean optimal) {
+            this.cover = cover;
+            this.optimal = optimal;
+        }
+
+        /**
+         * Returns the indices of the test cases in the best cover found.
+         *
+         * @return the best cover found
+         */
+        public List<Integer> getCover() {
+            return this.cover;
+        }
+
+        /**
+         * Returns whether the search finished within its budget, proving that the cover
+         * is minimum.
+         *
+         * @return true if the cover is proven minimum
+         */
+        public boolean isOptimal() {
+            return this.optimal;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package main.rice.concisegen;
+
+import main.rice.metrics.MetricsRegistry;
+
+import java.util.*;
+
+/**
+ * A set cover builder that consumes the results of testing one test case at a time, as
+ * they are produced, rather than waiting for the entire TestResults. A running cover is
+ * maintained at all times: whenever a test case arrives that catches a heretofore-uncovered
+ * file, it is added to the cover. Once all results are in, the cover can either be
+ * returned as is, or re-optimized by running the lazy greedy algorithm over every row
+ * received (which yields exactly the cover that setCover would have produced).
+ *
+ * The results received so far also form a (sparse) matrix, whose rows are indexed by
+ * test case: only the rows of test cases that catch at least one file are stored, as
+ * bitsets over the files, and every other row is empty. The heap of gains that the lazy
+ * greedy algorithm starts from is built as rows arrive, so re-optimizing only has to run
+ * the selection rounds.
+ *
+ * Rows may be added from multiple threads.
+ */
+public class IncrementalCover extends ACoverMatrix {
+
+    /**
+     * The index of the test case of each stored row; sorted (along with rows) whenever
+     * a row is looked up.
+     */
+    private int[] rowCases;
+
+    /**
+     * The files caught by each stored row, as a bitset over the files.
+     */
+    private long[][] rows;
+
+    /**
+     * The number of rows stored.
+     */
+    private int numRows;
+
+    /**
+     * Whether rowCases is sorted.
+     */
+    private boolean sorted;
+
+    /**
+     * One past the highest test case index received so far.
+     */
+    private int numCases;
+
+    /**
+     * The number of test cases whose results have been received.
+     */
+    private int numAccepted;
+
+    /**
+     * The entries {gain, caseIndex} of every stored row, where gain is the number of
+     * files it catches, in the order the lazy greedy algorithm takes them.
+     */
+    private final PriorityQueue<int[]> gains;
+
+    /**
+     * The indices of the test cases in the running cover, in the order they were added.
+     */
+    private final List<Integer> runningCover;
+
+    /**
+     * Constructor for an IncrementalCover, which starts out with no results.
+     *
+     * @param numFiles the number of files that test cases may catch
+     */
+    public IncrementalCover(int numFiles) {
+        this.colToFile = new int[numFiles];
+        for (int col = 0; col < numFiles; col++) {
+            this.colToFile[col] = col;
+        }
+        this.numWords = (numFiles + 63) >>> 6;
+        this.wrongMask = new long[this.numWords];
+        this.rowCases = new int[16];
+        this.rows = new long[16][];
+        this.sorted = true;
+        this.gains = ConciseSetGenerator.newGainHeap(16);
+        this.runningCover = new ArrayList<>();
+    }
+
+    /**
+     * Records the results of a single test case, and adds it to the running cover if it
+     * catches any file that was not already caught.
+     *
+     * @param caseIndex   the index of the test case; each may only be received once
+     * @param caughtFiles the set of files caught by the test case
+     * @return true if the test case was added to the running cover
+     */
+    public synchronized boolean accept(int caseIndex, Set<Integer> caughtFiles) {
+        this.numAccepted++;
+        this.numCases = Math.max(this.numCases, caseIndex + 1);
+        if (caughtFiles.isEmpty()) {
+            return false;
+        }
+
+        long[] row = new long[this.numWords];
+        for (int file : caughtFiles) {
+            if (file < 0 || file >= this.colToFile.length) {
+                throw new IllegalArgumentException("file " + file + " is outside of [0, "
+                    + this.colToFile.length + ")");
+            }
+            setBit(row, file);
+        }
+        if (this.numRows == this.rows.length) {
+            this.rows = Arrays.copyOf(this.rows, this.numRows * 2);
+            this.rowCases = Arrays.copyOf(this.rowCases, this.numRows * 2);
+        }
+        this.sorted &= this.numRows == 0 || this.rowCases[this.numRows - 1] < caseIndex;
+        this.rows[this.numRows] = row;
+        this.rowCases[this.numRows] = caseIndex;
+        this.numRows++;
+        this.gains.add(new int[]{caughtFiles.size(), caseIndex});
+
+        boolean catchesNew = false;
+        for (int word = 0; word < this.numWords; word++) {
+            catchesNew |= (row[word] & ~this.wrongMask[word]) != 0;
+            this.wrongMask[word] |= row[word];
+        }
+        if (catchesNew) {
+            this.runningCover.add(caseIndex);
+        }
+        return catchesNew;
+    }
+
+    /**
+     * Returns a snapshot of the running cover, which covers every file caught so far.
+     *
+     * @return the indices of the test cases in the running cover
+     */
+    public synchronized List<Integer> getPartialCover() {
+        return new ArrayList<>(this.runningCover);
+    }
+
+    /**
+     * Returns the number of test cases whose results have been received.
+     *
+     * @return the number of rows received so far
+     */
+    public synchronized int numAccepted() {
+        return this.numAccepted;
+    }
+
+    /**
+     * Returns the number of files caught by the test cases received so far.
+     *
+     * @return the number of files caught so far
+     */
+    public synchronized int numCaught() {
+        int numCaught = 0;
+        for (long word : this.wrongMask) {
+            numCaught += Long.bitCount(word);
+        }
+        return numCaught;
+    }
+
+    /**
+     * Finalizes the cover once all results are in.
+     *
+     * @param reoptimize whether to replace the running cover with the lazy greedy cover
+     *                   over every row received
+     * @return the indices of the test cases in the final cover
+     */
+    public List<Integer> finish(boolean reoptimize) {
+        return this.finish(reoptimize, MetricsRegistry.DISABLED);
+    }
+
+    /**
+     * A variant of finish that measures the lazy greedy algorithm in the given registry
+     * (see ConciseSetGenerator.lazyGreedyCover(ACoverMatrix, MetricsRegistry)).
+     *
+     * @param reoptimize whether to replace the running cover with the lazy greedy cover
+     *                   over every row received
+     * @param metrics    the metrics registry
+     * @return the indices of the test cases in the final cover
+     */
+    public synchronized List<Integer> finish(boolean reoptimize, MetricsRegistry metrics) {
+        if (!reoptimize) {
+            return this.getPartialCover();
+        }
+        PriorityQueue<int[]> heap = ConciseSetGenerator.newGainHeap(this.gains.size());
+        for (int[] entry : this.gains) {
+            heap.add(entry.clone());
+        }
+        return ConciseSetGenerator.lazyGreedyCover(this, heap, metrics);
+    }
+
+    /**
+     * Returns the number of test cases (rows) in this matrix: one past the highest test
+     * case index received so far.
+     *
+     * @return the number of test cases
+     */
+    @Override
+    public synchronized int numCases() {
+        return this.numCases;
+    }
+
+    /**
+     * Computes the number of uncovered files that would be caught by the given test
+     * case, i.e. popcount(row AND uncovered).
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns
+     * @return the number of heretofore-uncovered files caught by the test case
+     */
+    @Override
+    public synchronized int gain(int caseIndex, long[] uncovered) {
+        long[] row = this.row(caseIndex);
+        if (row == null) {
+            return 0;
+        }
+        int gain = 0;
+        for (int word = 0; word < this.numWords; word++) {
+            gain += Long.bitCount(row[word] & uncovered[word]);
+        }
+        return gain;
+    }
+
+    /**
+     * Marks every file caught by the given test case as covered, by clearing its bits
+     * in the input mask.
+     *
+     * @param caseIndex the index of the test case
+     * @param uncovered the mask of uncovered columns; mutated in place
+     */
+    @Override
+    public synchronized void cover(int caseIndex, long[] uncovered) {
+        long[] row = this.row(caseIndex);
+        if (row == null) {
+            return;
+        }
+        for (int word = 0; word < this.numWords; word++) {
+            uncovered[word] &= ~row[word];
+        }
+    }
+
+    /**
+     * Returns the set of files caught by the given test case.
+     *
+     * @param caseIndex the index of the test case
+     * @return the set of files caught by the test case
+     */
+    @Override
+    public synchronized Set<Integer> getFiles(int caseIndex) {
+        long[] row = this.row(caseIndex);
+        Set<Integer> files = new HashSet<>();
+        if (row == null) {
+            return files;
+        }
+        for (int word = 0; word < this.numWords; word++) {
+            long bits = row[word];
+            while (bits != 0) {
+                files.add((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Helper function that looks up the stored row of a test case, first sorting the
+     * rows by test case index if any arrived out of order.
+     *
+     * @param caseIndex the index of the test case
+     * @return the bitset of files caught by the test case, or null if it caught none
+     */
+    private long[] row(int caseIndex) {
+        if (!this.sorted) {
+            // Sort (test case index, slot) pairs packed into longs, then permute
+            long[] keys = new long[this.numRows];
+            for (int slot = 0; slot < this.numRows; slot++) {
+                keys[slot] = ((long) this.rowCases[slot] << 32) | slot;
+            }
+            Arrays.sort(keys);
+            long[][] sortedRows = new long[this.rows.length][];
+            for (int idx = 0; idx < this.numRows; idx++) {
+                sortedRows[idx] = this.rows[(int) keys[idx]];
+                this.rowCases[idx] = (int) (keys[idx] >>> 32);
+            }
+            this.rows = sortedRows;
+            this.sorted = true;
+        }
+        int slot = Arrays.binarySearch(this.rowCases, 0, this.numRows, caseIndex);
+        return slot < 0 ? null : this.rows[slot];
+    }
+}
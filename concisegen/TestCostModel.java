@@ -0,0 +1,94 @@
+package main.rice.concisegen;
+
+import main.rice.obj.APyObj;
+import main.rice.obj.AIterablePyObj;
+import main.rice.obj.PyDictObj;
+import main.rice.test.TestCase;
+import main.rice.test.TestResults;
+
+import java.util.Map;
+
+/**
+ * Stateless class for computing the (relative) cost of running each test case, for use
+ * by the cost-weighted set cover in ConciseSetGenerator. Costs can either be estimated
+ * from the size of each test case's arguments, or derived from measured execution times.
+ */
+public class TestCostModel {
+
+    /**
+     * Estimates the cost of every test case in the input results from the size of its
+     * arguments.
+     *
+     * @param results the results of testing
+     * @return an array mapping each test case (index i) to its estimated cost
+     */
+    public static double[] estimateCosts(TestResults results) {
+        double[] costs = new double[results.getCaseToFiles().size()];
+        for (int caseIndex = 0; caseIndex < costs.length; caseIndex++) {
+            costs[caseIndex] = estimateCost(results.getTestCase(caseIndex));
+        }
+        return costs;
+    }
+
+    /**
+     * Estimates the cost of a single test case as the total number of Python objects in
+     * its arguments (so that, for instance, a list of ten ints costs eleven).
+     *
+     * @param test the test case
+     * @return the estimated cost of running test; always at least 1
+     */
+    public static double estimateCost(TestCase test) {
+        int size = 0;
+        for (APyObj arg : test.getArgs()) {
+            size += objSize(arg);
+        }
+        return Math.max(1, size);
+    }
+
+    /**
+     * Converts measured per-test execution times into costs, flooring each at one
+     * nanosecond so that no test case is ever considered free. Test cases whose time is
+     * unknown (negative) cost the mean of the known times, or 1 if none is known.
+     *
+     * @param nanos an array mapping each test case (index i) to its execution time, or
+     *              to -1 if unknown
+     * @return an array mapping each test case (index i) to its cost
+     */
+    public static double[] fromMeasured(long[] nanos) {
+        double knownTotal = 0;
+        int numKnown = 0;
+        for (long caseNanos : nanos) {
+            if (caseNanos >= 0) {
+                knownTotal += caseNanos;
+                numKnown++;
+            }
+        }
+        double unknownCost = numKnown == 0 ? 1 : Math.max(1, knownTotal / numKnown);
+        double[] costs = new double[nanos.length];
+        for (int caseIndex = 0; caseIndex < nanos.length; caseIndex++) {
+            costs[caseIndex] = nanos[caseIndex] < 0 ? unknownCost : Math.max(1, nanos[caseIndex]);
+        }
+        return costs;
+    }
+
+    /**
+     * Recursively counts the number of Python objects within the input object,
+     * including the object itself.
+     *
+     * @param obj the object to measure
+     * @return the number of objects within obj
+     */
+    public static int objSize(APyObj obj) {
+        int size = 1;
+        if (obj instanceof AIterablePyObj<?> iterable) {
+            for (APyObj inner : iterable.getValue()) {
+                size += objSize(inner);
+            }
+        } else if (obj instanceof PyDictObj<?, ?> dict) {
+            for (Map.Entry<? extends APyObj, ? extends APyObj> entry : dict.getValue().entrySet()) {
+                size += objSize(entry.getKey()) + objSize(entry.getValue());
+            }
+        }
+        return size;
+    }
+}
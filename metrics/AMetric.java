@@ -0,0 +1,108 @@
+package main.rice.metrics;
+
+/**
+ * An abstract class whose instances are named measurements kept in a MetricsRegistry.
+ * Names follow the Prometheus conventions (lower case words separated by underscores,
+ * with a unit suffix such as "_seconds" or "_total"), so that the same name can be used
+ * in every export format.
+ */
+public abstract class AMetric {
+
+    /**
+     * The name of the metric.
+     */
+    protected final String name;
+
+    /**
+     * A one-line description of the metric.
+     */
+    protected final String help;
+
+    /**
+     * Constructor for an AMetric.
+     *
+     * @param name the name of the metric
+     * @param help a one-line description of the metric
+     */
+    protected AMetric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * Returns the name of the metric.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the description of the metric.
+     *
+     * @return the description
+     */
+    public String getHelp() {
+        return this.help;
+    }
+
+    /**
+     * Appends the current value of the metric as a JSON object, e.g.
+     * {"type": "counter", "value": 3}.
+     *
+     * @param json the JSON being built
+     */
+    abstract void appendJson(StringBuilder json);
+
+    /**
+     * Appends the current value of the metric in the Prometheus text exposition format,
+     * including its HELP and TYPE lines.
+     *
+     * @param text the text being built
+     */
+    abstract void appendPrometheus(StringBuilder text);
+
+    /**
+     * Helper function that formats a number for JSON, which has no representation for
+     * infinities or NaN.
+     *
+     * @param value the number
+     * @return the number, or "null" if it is not finite
+     */
+    static String jsonNumber(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    /**
+     * Helper function that formats a number for the Prometheus text exposition format,
+     * which spells infinities and NaN differently from Java.
+     *
+     * @param value the number
+     * @return the number, or "+Inf", "-Inf" or "NaN" if it is not finite
+     */
+    static String promNumber(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Helper function that appends the HELP and TYPE lines that precede the samples of a
+     * metric in the Prometheus text exposition format.
+     *
+     * @param text the text being built
+     * @param name the name of the metric family
+     * @param help the description of the metric
+     * @param type the Prometheus type of the metric
+     */
+    static void appendHeader(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ')
+            .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
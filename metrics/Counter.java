@@ -0,0 +1,68 @@
+package main.rice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metric that counts events, e.g. the number of test cases generated. Counters only
+ * ever increase, and are safe to increment from many threads at once with little
+ * contention. A disabled counter ignores every increment.
+ */
+public class Counter extends AMetric {
+
+    /**
+     * The count, or null if the counter is disabled.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor for a Counter.
+     *
+     * @param name    the name of the metric
+     * @param help    a one-line description of the metric
+     * @param enabled whether to count anything at all
+     */
+    Counter(String name, String help, boolean enabled) {
+        super(name, help);
+        this.count = enabled ? new LongAdder() : null;
+    }
+
+    /**
+     * Counts a single event.
+     */
+    public void inc() {
+        if (this.count != null) {
+            this.count.increment();
+        }
+    }
+
+    /**
+     * Counts the given number of events.
+     *
+     * @param events the number of events; must not be negative
+     */
+    public void add(long events) {
+        if (this.count != null) {
+            this.count.add(events);
+        }
+    }
+
+    /**
+     * Returns the number of events counted so far.
+     *
+     * @return the count, or 0 if the counter is disabled
+     */
+    public long get() {
+        return this.count == null ? 0 : this.count.sum();
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\": \"counter\", \"value\": ").append(this.get()).append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        appendHeader(text, this.name, this.help, "counter");
+        text.append(this.name).append(' ').append(this.get()).append('\n');
+    }
+}
@@ -0,0 +1,51 @@
+package main.rice.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event spanning a single round of the greedy set cover: every
+ * gain evaluated up to and including the selection of one test case.
+ *
+ * Like every JFR event, it costs next to nothing unless a recording is enabled for it;
+ * fields should only be filled in once shouldCommit() returns true.
+ */
+@Name("main.rice.CoverRound")
+@Label("Cover Round")
+@Category({"FEAT", "Set Cover"})
+@Description("Selection of one test case by the greedy set cover")
+public class CoverRoundEvent extends Event {
+
+    /**
+     * The number of the round, from 1.
+     */
+    @Label("Round")
+    public int round;
+
+    /**
+     * The index of the test case selected.
+     */
+    @Label("Selected Case")
+    public int selectedCase;
+
+    /**
+     * The number of files newly caught by the test case selected.
+     */
+    @Label("Gain")
+    public int gain;
+
+    /**
+     * The number of gains evaluated during the round.
+     */
+    @Label("Evaluations")
+    public int evaluations;
+
+    /**
+     * The number of test cases still in contention after the round.
+     */
+    @Label("Candidates")
+    public int candidates;
+}
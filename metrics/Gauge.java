@@ -0,0 +1,48 @@
+package main.rice.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A metric whose value is computed whenever the metrics are exported, e.g. a rate derived
+ * from a counter and a timer, or the size of a data structure.
+ */
+public class Gauge extends AMetric {
+
+    /**
+     * Computes the value of the gauge.
+     */
+    private final DoubleSupplier value;
+
+    /**
+     * Constructor for a Gauge.
+     *
+     * @param name  the name of the metric
+     * @param help  a one-line description of the metric
+     * @param value computes the value of the gauge; may be called from any thread
+     */
+    Gauge(String name, String help, DoubleSupplier value) {
+        super(name, help);
+        this.value = value;
+    }
+
+    /**
+     * Returns the current value of the gauge.
+     *
+     * @return the value
+     */
+    public double get() {
+        return this.value.getAsDouble();
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\": \"gauge\", \"value\": ").append(jsonNumber(this.get()))
+            .append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        appendHeader(text, this.name, this.help, "gauge");
+        text.append(this.name).append(' ').append(promNumber(this.get())).append('\n');
+    }
+}
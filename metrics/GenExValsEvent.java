@@ -0,0 +1,40 @@
+package main.rice.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event spanning the exhaustive enumeration of a single
+ * parameter's values (APyNode.genExVals()), so that a recording shows which parameter
+ * of a config file is slow to enumerate, and how many values it produced.
+ *
+ * Like every JFR event, it costs next to nothing unless a recording is enabled for it;
+ * fields should only be filled in once shouldCommit() returns true.
+ */
+@Name("main.rice.GenExVals")
+@Label("Exhaustive Enumeration")
+@Category({"FEAT", "Generation"})
+@Description("Enumeration of every value in a parameter's exhaustive domain")
+public class GenExValsEvent extends Event {
+
+    /**
+     * The index of the parameter.
+     */
+    @Label("Parameter")
+    public int param;
+
+    /**
+     * The type of the parameter, in config file syntax, e.g. "list(int)".
+     */
+    @Label("Type")
+    public String type;
+
+    /**
+     * The number of values enumerated.
+     */
+    @Label("Values")
+    public int numValues;
+}
@@ -0,0 +1,239 @@
+package main.rice.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A metric that records the distribution of durations, e.g. of executions, so that
+ * quantiles such as the median and the 99th percentile can be reported. Durations are
+ * counted in a fixed array of log-linear buckets, in the style of HdrHistogram: every
+ * power of two is split into SUB_BUCKETS equal sub-buckets, so every quantile is accurate
+ * to within 1 / SUB_BUCKETS of its true value (values below SUB_BUCKETS nanoseconds are
+ * exact), whatever the range of the durations. Memory is fixed at BUCKETS counts, and
+ * recording is lock-free (a few atomic increments), so it is safe to record every
+ * execution from many threads at once. A disabled histogram ignores every recording.
+ */
+public class Histogram extends AMetric {
+
+    /**
+     * The number of bits of each duration kept exactly; the rest are rounded away.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of sub-buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, enough for every non-negative long.
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The quantiles reported by the exports.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * The number of durations in each bucket, or null if the histogram is disabled.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * The number of durations recorded.
+     */
+    private final AtomicLong count;
+
+    /**
+     * The total of the durations recorded, in nanoseconds.
+     */
+    private final AtomicLong totalNanos;
+
+    /**
+     * The longest duration recorded, in nanoseconds.
+     */
+    private final LongAccumulator maxNanos;
+
+    /**
+     * Constructor for a Histogram.
+     *
+     * @param name    the name of the metric
+     * @param help    a one-line description of the metric
+     * @param enabled whether to record anything at all
+     */
+    Histogram(String name, String help, boolean enabled) {
+        super(name, help);
+        this.counts = enabled ? new AtomicLongArray(BUCKETS) : null;
+        this.count = enabled ? new AtomicLong() : null;
+        this.totalNanos = enabled ? new AtomicLong() : null;
+        this.maxNanos = enabled ? new LongAccumulator(Math::max, 0) : null;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in nanoseconds; negative durations count as 0
+     */
+    public void record(long nanos) {
+        if (this.counts != null) {
+            nanos = Math.max(0, nanos);
+            this.counts.incrementAndGet(bucketOf(nanos));
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded so far.
+     *
+     * @return the count, or 0 if the histogram is disabled
+     */
+    public long getCount() {
+        return this.count == null ? 0 : this.count.get();
+    }
+
+    /**
+     * Returns the longest duration recorded so far.
+     *
+     * @return the longest duration, in seconds
+     */
+    public double getMaxSeconds() {
+        return this.count == null ? 0 : this.maxNanos.get() / 1e9;
+    }
+
+    /**
+     * Returns a quantile of the durations recorded so far: the smallest duration such
+     * that at least the given fraction of durations are no longer, to within the
+     * precision of the buckets (and never more than the longest duration recorded).
+     *
+     * @param quantile the quantile, between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the quantile, in seconds, or 0 if nothing has been recorded
+     */
+    public double getQuantileSeconds(double quantile) {
+        if (this.counts == null) {
+            return 0;
+        }
+        // Snapshot the buckets first, so that the rank is within the snapshot even if
+        // durations are being recorded meanwhile
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = this.counts.get(bucket);
+            total += snapshot[bucket];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(highestInBucket(bucket), this.maxNanos.get()) / 1e9;
+            }
+        }
+        return this.maxNanos.get() / 1e9;
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\": \"histogram\", \"count\": ").append(this.getCount())
+            .append(", \"sum_seconds\": ").append(jsonNumber(this.getTotalSeconds()));
+        for (double quantile : QUANTILES) {
+            json.append(", \"p").append(percentile(quantile)).append("_seconds\": ")
+                .append(jsonNumber(this.getQuantileSeconds(quantile)));
+        }
+        json.append(", \"max_seconds\": ").append(jsonNumber(this.getMaxSeconds())).append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        appendHeader(text, this.name, this.help, "summary");
+        this.appendSummary(text, this.name, "");
+        appendHeader(text, this.name + "_max", "Maximum of " + this.name, "gauge");
+        text.append(this.name).append("_max ").append(promNumber(this.getMaxSeconds()))
+            .append('\n');
+    }
+
+    /**
+     * Appends the samples of the histogram as a Prometheus summary (without its HELP and
+     * TYPE lines): one sample per quantile, then the sum and count.
+     *
+     * @param text   the text being built
+     * @param name   the name of the metric family
+     * @param labels any labels to add to every sample, each followed by a comma, e.g.
+     *               "impl=\"f.py\","; or the empty string
+     */
+    void appendSummary(StringBuilder text, String name, String labels) {
+        for (double quantile : QUANTILES) {
+            text.append(name).append('{').append(labels).append("quantile=\"").append(quantile)
+                .append("\"} ").append(promNumber(this.getQuantileSeconds(quantile)))
+                .append('\n');
+        }
+        String braced = labels.isEmpty() ? ""
+            : "{" + labels.substring(0, labels.length() - 1) + "}";
+        text.append(name).append("_sum").append(braced).append(' ')
+            .append(promNumber(this.getTotalSeconds())).append('\n');
+        text.append(name).append("_count").append(braced).append(' ')
+            .append(this.getCount()).append('\n');
+    }
+
+    /**
+     * Helper function that returns the total of the durations recorded so far.
+     *
+     * @return the total duration, in seconds
+     */
+    private double getTotalSeconds() {
+        return this.count == null ? 0 : this.totalNanos.get() / 1e9;
+    }
+
+    /**
+     * Helper function that finds the bucket a duration is counted in. Durations below
+     * SUB_BUCKETS have a bucket each; above that, the duration's highest set bit picks a
+     * power of two, and the SUB_BUCKET_BITS bits below it pick the sub-bucket.
+     *
+     * @param nanos the duration, in nanoseconds; not negative
+     * @return the index of the bucket
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Helper function that finds the longest duration counted in a bucket; the inverse
+     * of bucketOf().
+     *
+     * @param bucket the index of the bucket
+     * @return the longest duration in the bucket, in nanoseconds
+     */
+    private static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Helper function that names a quantile as a percentile, e.g. "99" for 0.99 and "50"
+     * for 0.5.
+     *
+     * @param quantile the quantile
+     * @return the percentile, without trailing zeros
+     */
+    private static String percentile(double quantile) {
+        return BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros()
+            .toPlainString().replace('.', '_');
+    }
+}
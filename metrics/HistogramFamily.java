@@ -0,0 +1,145 @@
+package main.rice.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A metric made up of one Histogram per value of a label, e.g. one histogram of
+ * execution times per implementation. Histograms are created the first time their label
+ * value is seen, and share the family's name in every export (distinguished by the
+ * label in the Prometheus format).
+ */
+public class HistogramFamily extends AMetric {
+
+    /**
+     * The histogram handed out by a disabled family.
+     */
+    private static final Histogram DISABLED_HISTOGRAM = new Histogram("disabled", "", false);
+
+    /**
+     * The name of the label.
+     */
+    private final String label;
+
+    /**
+     * The histograms, by label value, or null if the family is disabled.
+     */
+    private final Map<String, Histogram> histograms;
+
+    /**
+     * Constructor for a HistogramFamily, which starts out with no histograms.
+     *
+     * @param name    the name of the metric
+     * @param help    a one-line description of the metric
+     * @param label   the name of the label
+     * @param enabled whether to record anything at all
+     */
+    HistogramFamily(String name, String help, String label, boolean enabled) {
+        super(name, help);
+        this.label = label;
+        this.histograms = enabled ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Returns the histogram for a label value, creating it if need be. Callers that
+     * record many durations under the same value should keep the histogram rather than
+     * look it up every time.
+     *
+     * @param value the value of the label
+     * @return the histogram, which ignores every recording if the family is disabled
+     */
+    public Histogram get(String value) {
+        if (this.histograms == null) {
+            return DISABLED_HISTOGRAM;
+        }
+        return this.histograms.computeIfAbsent(value,
+            key -> new Histogram(this.name, this.help, true));
+    }
+
+    /**
+     * Labels a non-negative number with the range of numbers between consecutive powers
+     * of two that it falls in ("0", "1", "2-3", "4-7", "8-15", and so on), so that
+     * numbers of similar magnitude, such as the sizes of test cases, share a histogram.
+     *
+     * @param value the number
+     * @return the label of its range
+     */
+    public static String powerOfTwoRange(long value) {
+        if (value <= 1) {
+            return Long.toString(Math.max(0, value));
+        }
+        long lowest = Long.highestOneBit(value);
+        return lowest + "-" + (lowest + (lowest - 1));
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\": \"histograms\", \"label\": \"").append(this.label)
+            .append("\", \"histograms\": {");
+        String separator = "";
+        for (Map.Entry<String, Histogram> entry : this.sorted().entrySet()) {
+            json.append(separator).append("\n    \"").append(jsonEscape(entry.getKey()))
+                .append("\": ");
+            entry.getValue().appendJson(json);
+            separator = ",";
+        }
+        json.append("\n  }}");
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        Map<String, Histogram> sorted = this.sorted();
+        appendHeader(text, this.name, this.help, "summary");
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            entry.getValue().appendSummary(text, this.name, this.labelOf(entry.getKey()) + ",");
+        }
+        appendHeader(text, this.name + "_max", "Maximum of " + this.name, "gauge");
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            text.append(this.name).append("_max{").append(this.labelOf(entry.getKey()))
+                .append("} ").append(promNumber(entry.getValue().getMaxSeconds()))
+                .append('\n');
+        }
+    }
+
+    /**
+     * Helper function that snapshots the histograms in label value order.
+     *
+     * @return the histograms, by label value
+     */
+    private Map<String, Histogram> sorted() {
+        return this.histograms == null ? new TreeMap<>() : new TreeMap<>(this.histograms);
+    }
+
+    /**
+     * Helper function that formats the label of a histogram for the Prometheus format,
+     * e.g. impl="f.py".
+     *
+     * @param value the value of the label
+     * @return the label
+     */
+    private String labelOf(String value) {
+        return this.label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * Helper function that escapes a string for use within a JSON string.
+     *
+     * @param value the string
+     * @return the escaped string, without surrounding quotes
+     */
+    private static String jsonEscape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
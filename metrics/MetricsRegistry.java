@@ -0,0 +1,266 @@
+package main.rice.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A collection of named metrics (counters, timers, histograms and gauges), shared by
+ * every stage of a run (parsing, base set generation, testing and set cover), which can
+ * be exported once the run is over as JSON or in the Prometheus text exposition format.
+ * Stages look their metrics up by name, so stages that share a registry and use the same
+ * name share the metric.
+ *
+ * Every stage is given DISABLED unless metrics were asked for. The disabled registry
+ * keeps nothing: it hands out counters, timers and histograms that ignore every event
+ * (and do not read the clock), and drops gauges, so instrumented code costs no more than
+ * a null check per event when metrics are off.
+ *
+ * Registries are safe to use from many threads at once.
+ */
+public class MetricsRegistry {
+
+    /**
+     * The registry that keeps nothing.
+     */
+    public static final MetricsRegistry DISABLED = new MetricsRegistry(false);
+
+    /**
+     * The counter handed out by the disabled registry.
+     */
+    private static final Counter DISABLED_COUNTER = new Counter("disabled", "", false);
+
+    /**
+     * The timer handed out by the disabled registry.
+     */
+    private static final Timer DISABLED_TIMER = new Timer("disabled", "", false);
+
+    /**
+     * The histogram handed out by the disabled registry.
+     */
+    private static final Histogram DISABLED_HISTOGRAM = new Histogram("disabled", "", false);
+
+    /**
+     * The histogram family handed out by the disabled registry.
+     */
+    private static final HistogramFamily DISABLED_HISTOGRAMS =
+        new HistogramFamily("disabled", "", "disabled", false);
+
+    /**
+     * Whether metrics are kept at all.
+     */
+    private final boolean enabled;
+
+    /**
+     * The metrics, by name.
+     */
+    private final Map<String, AMetric> metrics;
+
+    /**
+     * Constructor for an (enabled) MetricsRegistry, which starts out empty.
+     */
+    public MetricsRegistry() {
+        this(true);
+    }
+
+    /**
+     * Constructor for a MetricsRegistry.
+     *
+     * @param enabled whether metrics are kept at all
+     */
+    private MetricsRegistry(boolean enabled) {
+        this.enabled = enabled;
+        this.metrics = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns whether metrics are kept at all, so that callers can skip work done only to
+     * feed metrics.
+     *
+     * @return false for the disabled registry
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if need be.
+     *
+     * @param name the name of the counter, ending in "_total"
+     * @param help a one-line description of the counter, used if it is created
+     * @return the counter
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    public Counter counter(String name, String help) {
+        if (!this.enabled) {
+            return DISABLED_COUNTER;
+        }
+        return this.lookUp(name, Counter.class, () -> new Counter(name, help, true));
+    }
+
+    /**
+     * Returns the timer with the given name, creating it if need be.
+     *
+     * @param name the name of the timer, ending in "_seconds"
+     * @param help a one-line description of the timer, used if it is created
+     * @return the timer
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    public Timer timer(String name, String help) {
+        if (!this.enabled) {
+            return DISABLED_TIMER;
+        }
+        return this.lookUp(name, Timer.class, () -> new Timer(name, help, true));
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if need be.
+     *
+     * @param name the name of the histogram, ending in "_seconds"
+     * @param help a one-line description of the histogram, used if it is created
+     * @return the histogram
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    public Histogram histogram(String name, String help) {
+        if (!this.enabled) {
+            return DISABLED_HISTOGRAM;
+        }
+        return this.lookUp(name, Histogram.class, () -> new Histogram(name, help, true));
+    }
+
+    /**
+     * Returns the family of histograms with the given name, creating it if need be.
+     *
+     * @param name  the name of the family, ending in "_seconds"
+     * @param help  a one-line description of the family, used if it is created
+     * @param label the name of the label that distinguishes the histograms, used if the
+     *              family is created
+     * @return the family of histograms
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    public HistogramFamily histograms(String name, String help, String label) {
+        if (!this.enabled) {
+            return DISABLED_HISTOGRAMS;
+        }
+        return this.lookUp(name, HistogramFamily.class,
+            () -> new HistogramFamily(name, help, label, true));
+    }
+
+    /**
+     * Registers a gauge, replacing any earlier gauge with the same name; does nothing if
+     * the registry is disabled.
+     *
+     * @param name  the name of the gauge
+     * @param help  a one-line description of the gauge
+     * @param value computes the value of the gauge whenever the metrics are exported
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        if (!this.enabled) {
+            return;
+        }
+        AMetric previous = this.metrics.put(name, new Gauge(name, help, value));
+        if (previous != null && !(previous instanceof Gauge)) {
+            this.metrics.put(name, previous);
+            throw new IllegalArgumentException(name + " is not a gauge");
+        }
+    }
+
+    /**
+     * Returns the metric with the given name.
+     *
+     * @param name the name of the metric
+     * @return the metric, or null if there is none
+     */
+    public AMetric get(String name) {
+        return this.metrics.get(name);
+    }
+
+    /**
+     * Exports every metric as a JSON object mapping each name to the metric's current
+     * value, with names in lexicographic order.
+     *
+     * @return the JSON text
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n";
+        for (AMetric metric : this.sorted().values()) {
+            json.append(separator).append("  \"").append(metric.getName()).append("\": ");
+            metric.appendJson(json);
+            separator = ",\n";
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    /**
+     * Exports every metric in the Prometheus text exposition format, with names in
+     * lexicographic order.
+     *
+     * @return the exposition text
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (AMetric metric : this.sorted().values()) {
+            metric.appendPrometheus(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes every metric to a directory, as JSON to "metrics.json" and in the Prometheus
+     * text exposition format to "metrics.prom"; creates the directory if need be.
+     *
+     * @param dir the directory
+     * @throws IOException if the files cannot be written
+     */
+    public void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("metrics.json"), this.toJson());
+        Files.writeString(dir.resolve("metrics.prom"), this.toPrometheus());
+    }
+
+    /**
+     * Divides two numbers, for gauges that compute rates and ratios, which are 0 rather
+     * than NaN or infinite before anything has been measured.
+     *
+     * @param numerator   the numerator
+     * @param denominator the denominator
+     * @return the quotient, or 0 if the denominator is 0
+     */
+    public static double ratio(double numerator, double denominator) {
+        return denominator == 0 ? 0 : numerator / denominator;
+    }
+
+    /**
+     * Helper function that looks up a metric of a given kind, creating it if need be.
+     *
+     * @param name    the name of the metric
+     * @param kind    the class of the metric
+     * @param factory creates the metric
+     * @param <T>     the kind of metric
+     * @return the metric
+     * @throws IllegalArgumentException if the name belongs to a metric of another kind
+     */
+    private <T extends AMetric> T lookUp(String name, Class<T> kind, Supplier<T> factory) {
+        AMetric metric = this.metrics.computeIfAbsent(name, key -> factory.get());
+        if (!kind.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is not a " + kind.getSimpleName());
+        }
+        return kind.cast(metric);
+    }
+
+    /**
+     * Helper function that snapshots the metrics in name order.
+     *
+     * @return the metrics, by name
+     */
+    private Map<String, AMetric> sorted() {
+        return new TreeMap<>(this.metrics);
+    }
+}
@@ -0,0 +1,280 @@
+package main.rice.metrics;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Reports the progress of a long run at a fixed interval, on a background thread. A run
+ * is made up of stages (e.g. generating the base test set, or testing the
+ * implementations), each of which knows how much work it has planned and counts the
+ * work it has done; every interval, the reporter prints one line per stage in progress,
+ * e.g.
+ * <pre>
+ *     progress: test 52000/96000 (54.2%), 1733.3/s, ETA 0:00:25
+ * </pre>
+ * and one last line for every stage that finished since the last report. The rate is
+ * the average since the stage started, and the ETA assumes that it holds. A stage may
+ * also supply a detail to append to each of its lines, e.g. the size of a partial
+ * result.
+ *
+ * Stages count work with a LongAdder, so hot paths can count each unit of work from many
+ * threads at once without locking. DISABLED hands out stages that count nothing, and
+ * never prints.
+ */
+public class ProgressReporter implements Closeable {
+
+    /**
+     * The reporter that never reports anything.
+     */
+    public static final ProgressReporter DISABLED = new ProgressReporter();
+
+    /**
+     * The stage handed out by the disabled reporter.
+     */
+    private static final Stage DISABLED_STAGE = new Stage("disabled", false);
+
+    /**
+     * Where reports are printed, or null if the reporter is disabled.
+     */
+    private final PrintStream out;
+
+    /**
+     * The stages, in the order they started.
+     */
+    private final List<Stage> stages;
+
+    /**
+     * Runs the reports, or null if the reporter is disabled.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Constructor for a ProgressReporter; starts reporting at once.
+     *
+     * @param out            where reports are printed, e.g. System.err
+     * @param intervalMillis the time between two reports, in milliseconds
+     */
+    public ProgressReporter(PrintStream out, long intervalMillis) {
+        this.out = out;
+        this.stages = new CopyOnWriteArrayList<>();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructor for the disabled ProgressReporter.
+     */
+    private ProgressReporter() {
+        this.out = null;
+        this.stages = null;
+        this.timer = null;
+    }
+
+    /**
+     * Starts a stage.
+     *
+     * @param name  the name of the stage, as printed
+     * @param total the amount of work planned, or -1 if unknown (in which case no
+     *              percentage or ETA is printed until it is set)
+     * @return the stage, which ignores everything if the reporter is disabled
+     */
+    public Stage stage(String name, long total) {
+        if (this.out == null) {
+            return DISABLED_STAGE;
+        }
+        Stage stage = new Stage(name, true);
+        stage.setTotal(total);
+        this.stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Stops reporting, after printing a final report.
+     */
+    @Override
+    public void close() {
+        if (this.out != null) {
+            this.timer.shutdownNow();
+            this.report();
+        }
+    }
+
+    /**
+     * Helper function that prints one line for each stage in progress, and a last line
+     * for each stage that finished since the last report.
+     */
+    private synchronized void report() {
+        for (Stage stage : this.stages) {
+            if (stage.reported) {
+                continue;
+            }
+            long finished = stage.finishedAt;
+            if (finished != 0) {
+                stage.reported = true;
+            }
+            this.out.println("progress: " + stage.describe(finished != 0 ? finished
+                : System.nanoTime()));
+        }
+        this.out.flush();
+    }
+
+    /**
+     * A stage of a run, which counts the work it has done towards its planned total.
+     */
+    public static class Stage {
+
+        /**
+         * The name of the stage.
+         */
+        private final String name;
+
+        /**
+         * The amount of work done, or null if the stage is disabled.
+         */
+        private final LongAdder done;
+
+        /**
+         * The time the stage started, as given by System.nanoTime().
+         */
+        private final long startedAt;
+
+        /**
+         * The amount of work planned, or -1 if unknown.
+         */
+        private volatile long total;
+
+        /**
+         * Supplies the detail appended to each line, or null if there is none.
+         */
+        private volatile Supplier<String> detail;
+
+        /**
+         * The time the stage finished, as given by System.nanoTime(), or 0 if it has not.
+         */
+        private volatile long finishedAt;
+
+        /**
+         * Whether the last line for the stage has been printed; only used by the
+         * reporting thread.
+         */
+        private boolean reported;
+
+        /**
+         * Constructor for a Stage, which starts now.
+         *
+         * @param name    the name of the stage
+         * @param enabled whether to count anything at all
+         */
+        private Stage(String name, boolean enabled) {
+            this.name = name;
+            this.done = enabled ? new LongAdder() : null;
+            this.startedAt = System.nanoTime();
+            this.total = -1;
+        }
+
+        /**
+         * Sets the amount of work planned, e.g. once it is known.
+         *
+         * @param total the amount of work planned, or -1 if unknown
+         */
+        public void setTotal(long total) {
+            this.total = total;
+        }
+
+        /**
+         * Sets the detail appended to each line reporting the stage; called from the
+         * reporting thread.
+         *
+         * @param detail supplies the detail, e.g. "cover 5 tests"
+         */
+        public void setDetail(Supplier<String> detail) {
+            this.detail = detail;
+        }
+
+        /**
+         * Counts a single unit of work done.
+         */
+        public void inc() {
+            if (this.done != null) {
+                this.done.increment();
+            }
+        }
+
+        /**
+         * Counts the given amount of work done.
+         *
+         * @param work the amount of work; must not be negative
+         */
+        public void add(long work) {
+            if (this.done != null) {
+                this.done.add(work);
+            }
+        }
+
+        /**
+         * Marks the stage as finished, so that it is reported one last time.
+         */
+        public void finish() {
+            if (this.done != null && this.finishedAt == 0) {
+                this.finishedAt = System.nanoTime();
+            }
+        }
+
+        /**
+         * Helper function that describes the progress of the stage as of a given time.
+         *
+         * @param now the time, as given by System.nanoTime()
+         * @return the description
+         */
+        private String describe(long now) {
+            long work = this.done.sum();
+            long total = this.total;
+            double seconds = Math.max(1, now - this.startedAt) / 1e9;
+            double rate = work / seconds;
+            StringBuilder line = new StringBuilder(this.name).append(' ').append(work);
+            if (total >= 0) {
+                line.append('/').append(total);
+                if (total > 0) {
+                    line.append(String.format(Locale.ROOT, " (%.1f%%)", 100.0 * work / total));
+                }
+            }
+            line.append(String.format(Locale.ROOT, ", %.1f/s", rate));
+            if (this.finishedAt != 0) {
+                line.append(", done in ").append(formatDuration(seconds));
+            } else if (total >= 0 && rate > 0) {
+                line.append(", ETA ").append(formatDuration(Math.max(0, total - work) / rate));
+            }
+            Supplier<String> detail = this.detail;
+            if (detail != null) {
+                line.append(", ").append(detail.get());
+            }
+            return line.toString();
+        }
+
+        /**
+         * Helper function that formats a duration as hours, minutes and seconds, e.g.
+         * "1:02:03".
+         *
+         * @param seconds the duration, in seconds
+         * @return the formatted duration
+         */
+        private static String formatDuration(double seconds) {
+            long whole = (long) Math.ceil(seconds);
+            return String.format(Locale.ROOT, "%d:%02d:%02d", whole / 3600, whole / 60 % 60,
+                whole % 60);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package main.rice.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event spanning the generation of a batch of random test cases,
+ * with the number of draws it took, so that a recording shows when a random domain is so
+ * small (or so close to the exhaustive domain) that most draws are rejected.
+ *
+ * Like every JFR event, it costs next to nothing unless a recording is enabled for it;
+ * fields should only be filled in once shouldCommit() returns true.
+ */
+@Name("main.rice.RandomBatch")
+@Label("Random Batch")
+@Category({"FEAT", "Generation"})
+@Description("Generation of a batch of random test cases")
+public class RandomBatchEvent extends Event {
+
+    /**
+     * The number of random test cases generated.
+     */
+    @Label("Cases")
+    public int numCases;
+
+    /**
+     * The number of random test cases drawn, including those rejected as duplicates.
+     */
+    @Label("Draws")
+    public long draws;
+
+    /**
+     * The number of random test cases rejected as duplicates.
+     */
+    @Label("Duplicates")
+    public long duplicates;
+}
@@ -0,0 +1,129 @@
+package main.rice.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metric that records the durations of repeated events, e.g. of every execution of an
+ * implementation: how many there were, their total, and the longest one. Safe to record
+ * from many threads at once. A disabled timer ignores every recording, and does not even
+ * read the clock.
+ *
+ * Typical use:
+ * <pre>
+ *     long start = timer.start();
+ *     ...
+ *     timer.stop(start);
+ * </pre>
+ */
+public class Timer extends AMetric {
+
+    /**
+     * The number of events recorded, or null if the timer is disabled.
+     */
+    private final LongAdder count;
+
+    /**
+     * The total duration of the events recorded, in nanoseconds.
+     */
+    private final LongAdder totalNanos;
+
+    /**
+     * The longest duration recorded, in nanoseconds.
+     */
+    private final LongAccumulator maxNanos;
+
+    /**
+     * Constructor for a Timer.
+     *
+     * @param name    the name of the metric
+     * @param help    a one-line description of the metric
+     * @param enabled whether to record anything at all
+     */
+    Timer(String name, String help, boolean enabled) {
+        super(name, help);
+        this.count = enabled ? new LongAdder() : null;
+        this.totalNanos = enabled ? new LongAdder() : null;
+        this.maxNanos = enabled ? new LongAccumulator(Math::max, 0) : null;
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @return the start time, to be passed to stop(); 0 if the timer is disabled
+     */
+    public long start() {
+        return this.count == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records an event that started at the given time and ends now.
+     *
+     * @param start the start time returned by start()
+     */
+    public void stop(long start) {
+        if (this.count != null) {
+            this.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records an event that was timed elsewhere.
+     *
+     * @param nanos the duration of the event, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (this.count != null) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * Returns the number of events recorded so far.
+     *
+     * @return the count, or 0 if the timer is disabled
+     */
+    public long getCount() {
+        return this.count == null ? 0 : this.count.sum();
+    }
+
+    /**
+     * Returns the total duration of the events recorded so far.
+     *
+     * @return the total duration, in seconds
+     */
+    public double getTotalSeconds() {
+        return this.count == null ? 0 : this.totalNanos.sum() / 1e9;
+    }
+
+    /**
+     * Returns the longest duration recorded so far.
+     *
+     * @return the longest duration, in seconds
+     */
+    public double getMaxSeconds() {
+        return this.count == null ? 0 : this.maxNanos.get() / 1e9;
+    }
+
+    @Override
+    void appendJson(StringBuilder json) {
+        json.append("{\"type\": \"timer\", \"count\": ").append(this.getCount())
+            .append(", \"sum_seconds\": ").append(jsonNumber(this.getTotalSeconds()))
+            .append(", \"max_seconds\": ").append(jsonNumber(this.getMaxSeconds()))
+            .append('}');
+    }
+
+    @Override
+    void appendPrometheus(StringBuilder text) {
+        // Exposed as a summary without quantiles, plus a separate gauge for the maximum
+        appendHeader(text, this.name, this.help, "summary");
+        text.append(this.name).append("_count ").append(this.getCount()).append('\n');
+        text.append(this.name).append("_sum ").append(promNumber(this.getTotalSeconds()))
+            .append('\n');
+        appendHeader(text, this.name + "_max", "Maximum of " + this.name, "gauge");
+        text.append(this.name).append("_max ").append(promNumber(this.getMaxSeconds()))
+            .append('\n');
+    }
+}
@@ -0,0 +1,53 @@
+package main.rice.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event spanning a unit of testing: the executions of a single
+ * implementation (or of the reference solution) on a batch of consecutive test cases,
+ * so that a recording shows exactly which implementation, and which test cases, are
+ * slow.
+ *
+ * Like every JFR event, it costs next to nothing unless a recording is enabled for it;
+ * fields should only be filled in once shouldCommit() returns true.
+ */
+@Name("main.rice.WorkUnit")
+@Label("Work Unit")
+@Category({"FEAT", "Testing"})
+@Description("Executions of one implementation on a batch of test cases")
+public class WorkUnitEvent extends Event {
+
+    /**
+     * The identifier of the implementation, e.g. the path to a Python file.
+     */
+    @Label("Implementation")
+    public String impl;
+
+    /**
+     * Whether the implementation is the reference solution.
+     */
+    @Label("Reference")
+    public boolean reference;
+
+    /**
+     * The index of the first test case in the batch.
+     */
+    @Label("First Case")
+    public int firstCase;
+
+    /**
+     * The number of test cases in the batch.
+     */
+    @Label("Cases")
+    public int numCases;
+
+    /**
+     * The number of executions in the batch that were abandoned (timed out or crashed).
+     */
+    @Label("Abandoned")
+    public int abandoned;
+}
@@ -46,6 +46,30 @@ public abstract class APyNode<ObjType extends APyObj> {
         return null;
     }
 
+    /**
+     * Seeds the RNG of this node and of every node below it, so that random generation
+     * is repeatable: two trees built from the same configuration and seeded alike
+     * generate the same sequence of objects.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.rand = new Random(seed);
+
+        // Give each child its own stream, derived from (but not equal to) this one
+        Random seeds = new Random(seed);
+        APyNode<?> left = this.getLeftChild();
+        APyNode<?> right = this.getRightChild();
+        long leftSeed = seeds.nextLong();
+        long rightSeed = seeds.nextLong();
+        if (left != null) {
+            left.setSeed(leftSeed);
+        }
+        if (right != null) {
+            right.setSeed(rightSeed);
+        }
+    }
+
     /**
      * Sets the exhaustive domain to the input list of numbers.
      *
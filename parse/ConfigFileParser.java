@@ -1,4 +1,6 @@
 package main.rice.parse;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.Timer;
 import main.rice.node.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -16,6 +18,21 @@ public class ConfigFileParser {
      */
     private int counter;
 
+    /**
+     * the registry that parsing is measured in; disabled unless setMetrics is called
+     */
+    private MetricsRegistry metrics = MetricsRegistry.DISABLED;
+
+    /**
+     * This method sets the registry that parsing is measured in: the time taken to parse each config file, and the
+     * number of parameters parsed.
+     *
+     * @param metrics the metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * This method Reads and returns the contents of the file located at the input filepath
      *
@@ -37,6 +54,9 @@ public class ConfigFileParser {
      * @return a ConfigFile object consisting of the nodes, rand num and function name as specified in the JSON file
      */
     public ConfigFile parse(String contents) throws InvalidConfigException {
+        Timer parseTimer = this.metrics.timer("feat_parse_seconds", "Time taken to parse config files");
+        long start = parseTimer.start();
+
         // create the list of nodes to pass to config file
         List<APyNode<?>> nodes = new ArrayList<>();
 
@@ -108,7 +128,9 @@ public class ConfigFileParser {
             throw new InvalidConfigException("missing  or invalid rand num");
         }
 
-        // RETURN A CONFIG FILE
+        // RECORD METRICS AND RETURN A CONFIG FILE
+        parseTimer.stop(start);
+        this.metrics.counter("feat_parse_params_total", "Parameters parsed from config files").add(nodes.size());
         return new ConfigFile(function, nodes,  rand);
     }
 
@@ -0,0 +1,111 @@
+package main.rice.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An abstract class whose instances execute a reference solution and a set of (buggy)
+ * implementations of a single function on test cases. Each implementation, and the
+ * reference solution, is identified by a string; how those identifiers map onto code,
+ * and how that code is run, is up to the subclass.
+ *
+ * Executors must be safe to call from many threads at once.
+ */
+public abstract class AExecutor implements Closeable {
+
+    /**
+     * The name of the function under test.
+     */
+    protected final String funcName;
+
+    /**
+     * Constructor for an AExecutor.
+     *
+     * @param funcName the name of the function under test
+     */
+    protected AExecutor(String funcName) {
+        this.funcName = funcName;
+    }
+
+    /**
+     * Returns the name of the function under test.
+     *
+     * @return the function name
+     */
+    public String getFuncName() {
+        return this.funcName;
+    }
+
+    /**
+     * Returns the identifier of the reference solution.
+     *
+     * @return the identifier of the reference solution
+     */
+    public abstract String getReference();
+
+    /**
+     * Returns the identifiers of the implementations, in a fixed order; the i-th
+     * identifier is file i in the results of testing.
+     *
+     * @return the identifiers of the implementations
+     */
+    public abstract List<String> getImpls();
+
+    /**
+     * Returns the source of an implementation (or of the reference solution): any text
+     * that changes whenever its behavior might, which is used to key persistent caches.
+     *
+     * @param id the identifier of the implementation
+     * @return the source of the implementation
+     * @throws IOException if the source cannot be read
+     */
+    public abstract String getSource(String id) throws IOException;
+
+    /**
+     * Returns a key such that implementations with equal keys are guaranteed to behave
+     * identically, so that only one of them needs to be executed. By default, the key is
+     * a hash of the source.
+     *
+     * @param id the identifier of the implementation
+     * @return the equivalence key of the implementation
+     * @throws IOException if the source cannot be read
+     */
+    public String getEquivalenceKey(String id) throws IOException {
+        return ExpectedResultsCache.sha256(this.getSource(id));
+    }
+
+    /**
+     * Executes an implementation (or the reference solution) on a single test case.
+     *
+     * @param id            the identifier of the implementation
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @param fingerprint   whether to return only the fingerprint of the result (as
+     *                      computed by PythonWorker.fingerprint()) rather than the result
+     *                      itself
+     * @return the result; abandoned if the execution timed out or crashed
+     * @throws IOException if the implementation cannot be loaded or started
+     */
+    public abstract ExecutionResult execute(String id, TestCase test, long timeoutMillis,
+                                            boolean fingerprint) throws IOException;
+
+    /**
+     * Sets the number of executions that will be requested at once, so that the
+     * executor can size any pool of resources it keeps; must not be called while
+     * executions are in progress. Does nothing by default.
+     *
+     * @param parallelism the number of executions requested at once
+     */
+    public void setParallelism(int parallelism) {
+    }
+
+    /**
+     * Releases any resources kept between executions, such as idle interpreters. The
+     * executor remains usable, and reacquires resources as they are needed. Does
+     * nothing by default.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,241 @@
+package main.rice.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An append-only log of the progress of a run, so that a run that crashes or is
+ * preempted can be resumed without repeating any completed work. The log starts with a
+ * header identifying the run: the seed its base test set was generated from, and a key
+ * that changes whenever anything else that determines its results does (see
+ * TestPipeline.runKey()). Every other line records one completed row of results: the
+ * index of a test case and the indices of the files it caught. Nothing else needs to be
+ * logged: the test cases themselves are regenerated from the seed, and the cover is
+ * rebuilt from the rows.
+ *
+ * Rows are buffered, and forced to disk at most once per flush interval (and on close),
+ * so a crash loses at most the rows of the last interval. A line that was only partially
+ * written when the run crashed is discarded (and truncated away) on resume, so the log
+ * is always resumed from its last consistent state.
+ */
+public class CheckpointLog implements Closeable {
+
+    /**
+     * The name of the log file within the checkpoint directory.
+     */
+    private static final String LOG_NAME = "checkpoint.log";
+
+    /**
+     * The first field of the header.
+     */
+    private static final String MAGIC = "feat-checkpoint-v1";
+
+    /**
+     * The minimum time between two forces of the log to disk, in milliseconds.
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The rows recovered from the log when it was opened, by test case index.
+     */
+    private final SortedMap<Integer, Set<Integer>> completed;
+
+    /**
+     * The log file, open for appending.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The rows appended since the last flush.
+     */
+    private final StringBuilder pending;
+
+    /**
+     * The time of the last flush, as given by System.nanoTime().
+     */
+    private long lastFlush;
+
+    /**
+     * Constructor for a CheckpointLog; creates the checkpoint directory if need be.
+     *
+     * @param dir    the checkpoint directory
+     * @param seed   the seed the run's base test set is generated from
+     * @param runKey the key identifying everything else that determines the results
+     * @param resume whether to resume from an existing log; if false, or if there is no
+     *               log yet, a new log is started (replacing any existing one)
+     * @throws IOException if the log cannot be read or written, or the existing log
+     *                     belongs to a different run
+     */
+    public CheckpointLog(Path dir, long seed, String runKey, boolean resume)
+            throws IOException {
+        Files.createDirectories(dir);
+        Path logPath = dir.resolve(LOG_NAME);
+        String header = MAGIC + "\t" + seed + "\t" + runKey + "\n";
+        this.completed = new TreeMap<>();
+        this.pending = new StringBuilder();
+
+        if (resume && Files.exists(logPath)) {
+            byte[] log = Files.readAllBytes(logPath);
+            int consistent = this.load(log, header);
+            this.channel = FileChannel.open(logPath, StandardOpenOption.WRITE);
+            this.channel.truncate(consistent);
+            this.channel.position(consistent);
+        } else {
+            this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.channel.write(ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+            this.channel.force(false);
+        }
+        this.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Reads the seed recorded in the log in a checkpoint directory, so that a resumed
+     * run can regenerate the same base test set.
+     *
+     * @param dir the checkpoint directory
+     * @return the seed, or null if there is no (readable) log
+     * @throws IOException if the log exists but cannot be read
+     */
+    public static Long readSeed(Path dir) throws IOException {
+        Path logPath = dir.resolve(LOG_NAME);
+        if (!Files.exists(logPath)) {
+            return null;
+        }
+        try (Scanner scanner = new Scanner(logPath, StandardCharsets.UTF_8)) {
+            if (!scanner.hasNextLine()) {
+                return null;
+            }
+            String[] fields = scanner.nextLine().split("\t");
+            if (fields.length != 3 || !fields[0].equals(MAGIC)) {
+                return null;
+            }
+            return Long.parseLong(fields[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the rows recovered from the log when it was opened.
+     *
+     * @return the set of files caught by each completed test case, by test case index
+     */
+    public SortedMap<Integer, Set<Integer>> getCompleted() {
+        return Collections.unmodifiableSortedMap(this.completed);
+    }
+
+    /**
+     * Appends a completed row to the log, forcing the log to disk if the flush interval
+     * has elapsed.
+     *
+     * @param caseIndex the index of the test case
+     * @param files     the set of files caught by the test case
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void append(int caseIndex, Set<Integer> files) throws IOException {
+        StringJoiner joiner = new StringJoiner(",");
+        for (int file : new TreeSet<>(files)) {
+            joiner.add(Integer.toString(file));
+        }
+        this.pending.append(caseIndex).append('\t').append(joiner).append('\n');
+        if (System.nanoTime() - this.lastFlush >= FLUSH_INTERVAL_MILLIS * 1_000_000) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Forces every appended row to disk.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (this.pending.length() > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(
+                this.pending.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.pending.setLength(0);
+            this.channel.force(false);
+        }
+        this.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Forces every appended row to disk, and closes the log.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Helper function that parses an existing log into the completed rows.
+     *
+     * @param log    the contents of the log
+     * @param header the header this run would write
+     * @return the length of the consistent prefix of the log: every complete line
+     * @throws IOException if the log belongs to a different run
+     */
+    private int load(byte[] log, String header) throws IOException {
+        byte[] expected = header.getBytes(StandardCharsets.UTF_8);
+        if (log.length < expected.length
+                || !Arrays.equals(log, 0, expected.length, expected, 0, expected.length)) {
+            throw new IOException("the checkpoint belongs to a different run");
+        }
+
+        int consistent = expected.length;
+        int lineStart = consistent;
+        for (int idx = lineStart; idx < log.length; idx++) {
+            if (log[idx] != '\n') {
+                continue;
+            }
+            String line = new String(log, lineStart, idx - lineStart, StandardCharsets.UTF_8);
+            if (!this.parseRow(line)) {
+                break;
+            }
+            lineStart = idx + 1;
+            consistent = lineStart;
+        }
+        return consistent;
+    }
+
+    /**
+     * Helper function that parses a single row into the completed rows.
+     *
+     * @param line the line, without its newline
+     * @return true if the line is a well-formed row
+     */
+    private boolean parseRow(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 2) {
+            return false;
+        }
+        try {
+            Set<Integer> files = new HashSet<>();
+            if (!fields[1].isEmpty()) {
+                for (String file : fields[1].split(",")) {
+                    files.add(Integer.parseInt(file));
+                }
+            }
+            this.completed.put(Integer.parseInt(fields[0]), files);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package main.rice.test;
+
+/**
+ * The outcome of executing a single test case on a single implementation: the Python
+ * representation of the value returned (or of the exception raised), how long it took,
+ * and whether the execution had to be abandoned.
+ */
+public class ExecutionResult {
+
+    /**
+     * The Python representation of the result (or its fingerprint, if that is all that
+     * was requested), or null if the execution was abandoned.
+     */
+    private final String output;
+
+    /**
+     * The wall-clock time taken by the execution, in nanoseconds.
+     */
+    private final long nanos;
+
+    /**
+     * Whether the execution was killed for exceeding its timeout.
+     */
+    private final boolean timedOut;
+
+    /**
+     * Constructor for an ExecutionResult.
+     *
+     * @param output   the Python representation of the result, or null if the execution
+     *                 was abandoned
+     * @param nanos    the wall-clock time taken by the execution, in nanoseconds
+     * @param timedOut whether the execution was killed for exceeding its timeout
+     */
+    public ExecutionResult(String output, long nanos, boolean timedOut) {
+        this.output = output;
+        this.nanos = nanos;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * Returns the Python representation of the result.
+     *
+     * @return the output, or null if the execution timed out or crashed
+     */
+    public String getOutput() {
+        return this.output;
+    }
+
+    /**
+     * Returns the wall-clock time taken by the execution.
+     *
+     * @return the time taken, in nanoseconds
+     */
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    /**
+     * Returns whether the execution was killed for exceeding its timeout.
+     *
+     * @return true if the execution timed out
+     */
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     * Returns whether the execution was abandoned, either because it timed out or
+     * because the interpreter running it crashed.
+     *
+     * @return true if there is no output
+     */
+    public boolean isAbandoned() {
+        return this.output == null;
+    }
+}
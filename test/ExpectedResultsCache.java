@@ -0,0 +1,333 @@
+package main.rice.test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, content-addressed cache of the outputs of the reference solution. Each
+ * entry is keyed by a hash of (the contents of the reference solution, the name of the
+ * function under test, the arguments of the test case), so an entry is only ever reused
+ * if none of those has changed, and stale entries are simply never looked up again.
+ *
+ * Entries are stored in append-only log files within the cache directory, one per
+ * (reference solution, function under test), so that opening the cache only loads the
+ * entries it can use. Each log holds one newline-terminated record per entry: the hex
+ * key, the Base64-encoded output, the execution time in nanoseconds and a CRC-32 of the
+ * preceding fields, separated by tabs. Each record is flushed as soon as it is appended.
+ * A record that is malformed or fails its checksum is skipped when the log is loaded,
+ * and an incomplete record at the end of the log (e.g. because a previous run was killed
+ * mid-write) is truncated, so that the damaged entries are recomputed rather than read
+ * back. Once the logs exceed their size limit, the least recently used ones are deleted
+ * by prune().
+ *
+ * Several caches, in this process or others, may use the same log at once: loading,
+ * truncating and appending to a log all happen under an exclusive lock on it.
+ */
+public class ExpectedResultsCache implements Closeable {
+
+    /**
+     * The default maximum total size of the logs, in bytes.
+     */
+    private static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    /**
+     * The prefix of the name of every log file within the cache directory.
+     */
+    private static final String LOG_PREFIX = "expected";
+
+    /**
+     * The suffix of the name of every log file within the cache directory.
+     */
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * The monitor guarding each log within this process, since a FileLock is held on
+     * behalf of the whole process and cannot exclude other threads.
+     */
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    /**
+     * The hash of the contents of the reference solution and the function name, which
+     * prefixes every key.
+     */
+    private final String solutionHash;
+
+    /**
+     * The result for each key loaded or added so far.
+     */
+    private final Map<String, ExecutionResult> entries;
+
+    /**
+     * The cache directory.
+     */
+    private final Path dir;
+
+    /**
+     * The path to the log of this reference solution and function.
+     */
+    private final Path logPath;
+
+    /**
+     * The monitor guarding the log within this process.
+     */
+    private final Object monitor;
+
+    /**
+     * Reads and appends to the log.
+     */
+    private final FileChannel log;
+
+    /**
+     * The maximum total size of the logs, in bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * Constructor for an ExpectedResultsCache; creates the cache directory if need be,
+     * and loads every entry in the log of the given reference solution and function.
+     *
+     * @param dir            the cache directory
+     * @param solutionSource the source of the reference solution (see
+     *                       AExecutor.getSource())
+     * @param funcName       the name of the function under test
+     * @throws IOException if the directory or log cannot be read or created
+     */
+    public ExpectedResultsCache(Path dir, String solutionSource, String funcName)
+            throws IOException {
+        Files.createDirectories(dir);
+        this.solutionHash = sha256(solutionSource + "\0" + funcName);
+        this.entries = new HashMap<>();
+        this.dir = dir;
+        this.logPath = dir.resolve(LOG_PREFIX + "-" + this.solutionHash + LOG_SUFFIX);
+        this.monitor = MONITORS.computeIfAbsent(this.logPath.toAbsolutePath().normalize(),
+            path -> new Object());
+        this.log = FileChannel.open(this.logPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxBytes = DEFAULT_MAX_BYTES;
+        try {
+            synchronized (this.monitor) {
+                try (FileLock lock = this.log.lock()) {
+                    // Read through this channel, as closing any other releases the lock
+                    ByteBuffer contents = ByteBuffer.allocate(
+                        Math.toIntExact(this.log.size()));
+                    while (contents.hasRemaining()) {
+                        if (this.log.read(contents, contents.position()) < 0) {
+                            break;
+                        }
+                    }
+                    long valid = this.load(contents.array());
+                    if (valid < this.log.size()) {
+                        // Drop the incomplete tail so that new records follow the last
+                        this.log.truncate(valid);
+                    }
+                }
+                // Mark the log as recently used, for prune(); this opens and closes the
+                // file, so it must not happen while this process holds the lock
+                Files.setLastModifiedTime(this.logPath,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException | RuntimeException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the maximum total size of the logs, beyond which prune() deletes the least
+     * recently used ones.
+     *
+     * @param maxBytes the maximum total size of the logs, in bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up the result of the reference solution on a test case.
+     *
+     * @param test the test case
+     * @return the cached result, or null if there is none; its execution time is -1 if
+     * it was not recorded
+     */
+    public synchronized ExecutionResult get(TestCase test) {
+        return this.entries.get(this.key(test));
+    }
+
+    /**
+     * Records the result of the reference solution on a test case.
+     *
+     * @param test   the test case
+     * @param result the (non-abandoned) result of the reference solution
+     * @throws IOException if the entry cannot be appended to the log
+     */
+    public synchronized void put(TestCase test, ExecutionResult result) throws IOException {
+        String key = this.key(test);
+        this.entries.put(key, result);
+        String record = key + "\t" + Base64.getEncoder().encodeToString(
+            result.getOutput().getBytes(StandardCharsets.UTF_8)) + "\t" + result.getNanos();
+        String line = record + "\t" + checksum(record) + "\n";
+        synchronized (this.monitor) {
+            try (FileLock lock = this.log.lock()) {
+                long size = this.log.size();
+                ByteBuffer last = ByteBuffer.allocate(1);
+                if (size > 0 && this.log.read(last, size - 1) == 1
+                        && last.get(0) != '\n') {
+                    // A writer died mid-record, so end it (load() will skip it)
+                    line = "\n" + line;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    this.log.write(bytes, size + bytes.position());
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used logs (of any reference solution and function but
+     * this one) until the total size of the logs is within the limit.
+     *
+     * @throws IOException if the directory cannot be listed, or a log deleted
+     */
+    public void prune() throws IOException {
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(this.dir)) {
+            logs = new ArrayList<>(files
+                .filter(file -> file.getFileName().toString().startsWith(LOG_PREFIX)
+                    && file.getFileName().toString().endsWith(LOG_SUFFIX))
+                .toList());
+        }
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        long totalBytes = 0;
+        for (Path log : logs) {
+            lastUsed.put(log, Files.getLastModifiedTime(log));
+            totalBytes += Files.size(log);
+        }
+        logs.sort(Comparator.comparing(lastUsed::get));
+        for (Path log : logs) {
+            if (totalBytes <= this.maxBytes) {
+                break;
+            }
+            if (!log.getFileName().equals(this.logPath.getFileName())) {
+                totalBytes -= Files.size(log);
+                Files.deleteIfExists(log);
+            }
+        }
+    }
+
+    /**
+     * Closes the log, waiting for any other cache in this process to release its lock on
+     * it first, since closing a channel releases every lock this process holds on the
+     * file.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (this.monitor) {
+            this.log.close();
+        }
+    }
+
+    /**
+     * Helper function that loads every valid record of the log, skipping records that
+     * are malformed or fail their checksum, and stopping at a final record that is not
+     * newline-terminated.
+     *
+     * @param contents the contents of the log
+     * @return the number of bytes of contents made up of complete records
+     */
+    private long load(byte[] contents) {
+        int start = 0;
+        while (start < contents.length) {
+            int end = start;
+            while (end < contents.length && contents[end] != '\n') {
+                end++;
+            }
+            if (end == contents.length) {
+                // Partially-written trailing record
+                return start;
+            }
+            String line = new String(contents, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 4) {
+                continue;
+            }
+            String record = fields[0] + "\t" + fields[1] + "\t" + fields[2];
+            if (!checksum(record).equals(fields[3])) {
+                continue;
+            }
+            try {
+                String output = new String(Base64.getDecoder().decode(fields[1]),
+                    StandardCharsets.UTF_8);
+                long nanos = Long.parseLong(fields[2]);
+                this.entries.put(fields[0], new ExecutionResult(output, nanos, false));
+            } catch (IllegalArgumentException e) {
+                // Skip the damaged record
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Helper function that computes the checksum stored alongside a record.
+     *
+     * @param record the tab-separated fields of the record
+     * @return the hex-encoded CRC-32 of record
+     */
+    private static String checksum(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Helper function that computes the key for a test case.
+     *
+     * @param test the test case
+     * @return the key for test
+     */
+    private String key(TestCase test) {
+        return sha256(this.solutionHash + "\0" + PythonWorker.encodeArgs(test));
+    }
+
+    /**
+     * Computes the hex-encoded SHA-256 hash of a string.
+     *
+     * @param text the string to hash
+     * @return the hash of text
+     */
+    static String sha256(String text) {
+        return sha256(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes the hex-encoded SHA-256 hash of a byte array.
+     *
+     * @param bytes the bytes to hash
+     * @return the hash of bytes
+     */
+    static String sha256(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
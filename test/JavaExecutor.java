@@ -0,0 +1,355 @@
+package main.rice.test;
+
+import main.rice.obj.APyObj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * An in-process executor, in which the reference solution and every implementation is
+ * a Java function from the list of arguments (as APyObjs) to the result (as an APyObj),
+ * so that the rest of the pipeline can be exercised and measured without a Python
+ * toolchain. A function is registered either directly, under an identifier of the
+ * caller's choosing, or from a class that declares a public static method named after
+ * the function under test, taking a List&lt;APyObj&gt; and returning an APyObj; such a
+ * function is identified by the name of its class. Classes can be registered one by one,
+ * or all at once from a jar.
+ *
+ * Results are the string representations of the returned APyObjs (null standing for
+ * None), or "Error: " followed by the simple name of the exception thrown, mirroring the
+ * Python executor. Each execution runs on a pooled thread; if it exceeds its timeout,
+ * the thread is interrupted and discarded from the pool, never to run another
+ * execution, so that a function that ignores interruption only ever ties up the one
+ * thread it is spinning on (which is a daemon thread, lowered to the minimum priority).
+ *
+ * The classes of a jar are all loaded as it is registered, after which its class loader
+ * is closed, so that registering jars (e.g. once per job of a Daemon) leaks no open
+ * files.
+ */
+public class JavaExecutor extends AExecutor {
+
+    /**
+     * The idle threads that run executions, each a single-thread executor, so that a
+     * thread can be abandoned on timeout.
+     */
+    private static final Deque<ExecutorService> IDLE_THREADS = new ConcurrentLinkedDeque<>();
+
+    /**
+     * The registered functions, keyed by identifier, in lexicographic order.
+     */
+    private final SortedMap<String, Function<List<APyObj>, APyObj>> funcs;
+
+    /**
+     * The source of each registered function, keyed by identifier.
+     */
+    private final Map<String, String> sources;
+
+    /**
+     * The identifier of the reference solution, or null if it has not been set.
+     */
+    private String reference;
+
+    /**
+     * Constructor for a JavaExecutor with no registered functions.
+     *
+     * @param funcName the name of the function under test
+     */
+    public JavaExecutor(String funcName) {
+        super(funcName);
+        this.funcs = new TreeMap<>();
+        this.sources = new HashMap<>();
+    }
+
+    /**
+     * Registers a function. Its source is unique to this registration, so its results
+     * are never reused from a persistent cache, and it is never considered equivalent to
+     * another function.
+     *
+     * @param id   the identifier of the function
+     * @param func the function
+     */
+    public synchronized void register(String id, Function<List<APyObj>, APyObj> func) {
+        this.funcs.put(id, func);
+        this.sources.put(id, id + "\0" + UUID.randomUUID());
+    }
+
+    /**
+     * Registers the function defined by a class, identified by the class's name. Its
+     * source is the class's bytecode.
+     *
+     * @param cls the class declaring the function
+     * @throws IOException if the class does not declare the function, or its bytecode
+     *                     cannot be read
+     */
+    public synchronized void registerClass(Class<?> cls) throws IOException {
+        Method method = this.findMethod(cls);
+        if (method == null) {
+            throw new IOException(cls.getName() + " does not declare public static APyObj "
+                + this.funcName + "(List<APyObj>)");
+        }
+        this.funcs.put(cls.getName(), args -> invoke(method, args));
+        this.sources.put(cls.getName(), readBytecode(cls));
+    }
+
+    /**
+     * Registers the function defined by every top-level class in a jar that declares
+     * one; other classes are skipped.
+     *
+     * @param jarPath the path to the jar
+     * @return the identifiers of the functions registered
+     * @throws IOException if the jar cannot be read, or a class in it cannot be loaded
+     */
+    public synchronized List<String> registerJar(Path jarPath) throws IOException {
+        List<String> registered = new ArrayList<>();
+        // Load every class (nested ones included) before closing the loader, since a
+        // closed loader can no longer find the classes the functions go on to use
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{jarPath.toUri().toURL()},
+                JavaExecutor.class.getClassLoader());
+             JarFile jar = new JarFile(jarPath.toFile())) {
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                String name = entry.getName();
+                if (!name.endsWith(".class") || name.equals("module-info.class")) {
+                    continue;
+                }
+                String className = name.substring(0, name.length() - ".class".length())
+                    .replace('/', '.');
+                Class<?> cls;
+                try {
+                    cls = Class.forName(className, false, loader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    throw new IOException("cannot load " + className + " from " + jarPath, e);
+                }
+                if (!name.contains("$") && this.findMethod(cls) != null) {
+                    this.registerClass(cls);
+                    registered.add(className);
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Chooses which registered function is the reference solution; it is then no
+     * longer listed among the implementations.
+     *
+     * @param id the identifier of the reference solution
+     * @throws IllegalArgumentException if no function is registered under id
+     */
+    public synchronized void setReference(String id) {
+        if (!this.funcs.containsKey(id)) {
+            throw new IllegalArgumentException("no function registered as " + id);
+        }
+        this.reference = id;
+    }
+
+    /**
+     * Returns the identifier of the reference solution.
+     *
+     * @return the identifier of the reference solution
+     * @throws IllegalStateException if the reference solution has not been set
+     */
+    @Override
+    public synchronized String getReference() {
+        if (this.reference == null) {
+            throw new IllegalStateException("no reference solution has been set");
+        }
+        return this.reference;
+    }
+
+    /**
+     * Returns the identifiers of every registered function but the reference solution,
+     * in lexicographic order.
+     *
+     * @return the identifiers of the implementations
+     */
+    @Override
+    public synchronized List<String> getImpls() {
+        List<String> impls = new ArrayList<>(this.funcs.keySet());
+        impls.remove(this.reference);
+        return impls;
+    }
+
+    /**
+     * Returns the source of a registered function.
+     *
+     * @param id the identifier of the function
+     * @return the source of the function
+     * @throws IOException if no function is registered under id
+     */
+    @Override
+    public synchronized String getSource(String id) throws IOException {
+        String source = this.sources.get(id);
+        if (source == null) {
+            throw new IOException("no function registered as " + id);
+        }
+        return source;
+    }
+
+    /**
+     * Executes a registered function on a single test case.
+     *
+     * @param id            the identifier of the function
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @param fingerprint   whether to return only the fingerprint of the result
+     * @return the result; abandoned if the execution timed out or threw an Error
+     * @throws IOException if no function is registered under id
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting
+     *                                for the result, which is then abandoned; the
+     *                                thread's interrupt status is set again
+     */
+    @Override
+    public ExecutionResult execute(String id, TestCase test, long timeoutMillis,
+                                   boolean fingerprint) throws IOException {
+        Function<List<APyObj>, APyObj> func;
+        synchronized (this) {
+            func = this.funcs.get(id);
+        }
+        if (func == null) {
+            throw new IOException("no function registered as " + id);
+        }
+
+        long[] nanos = new long[1];
+        long startTime = System.nanoTime();
+        ExecutorService thread = IDLE_THREADS.pollFirst();
+        if (thread == null) {
+            thread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread worker = new Thread(runnable, "java-executor");
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+        AtomicReference<Thread> runner = new AtomicReference<>();
+        Future<String> future = thread.submit(() -> {
+            runner.set(Thread.currentThread());
+            long callStart = System.nanoTime();
+            String output;
+            try {
+                APyObj result = func.apply(test.getArgs());
+                output = result == null ? "None" : result.toString();
+            } catch (RuntimeException e) {
+                output = "Error: " + e.getClass().getSimpleName();
+            }
+            nanos[0] = System.nanoTime() - callStart;
+            return fingerprint ? PythonWorker.fingerprint(output) : output;
+        });
+        try {
+            String output = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            IDLE_THREADS.addFirst(thread);
+            return new ExecutionResult(output, nanos[0], false);
+        } catch (TimeoutException e) {
+            abandon(thread, future, runner.get());
+            return new ExecutionResult(null, System.nanoTime() - startTime, true);
+        } catch (ExecutionException e) {
+            // The function threw an Error, e.g. a StackOverflowError, akin to a crash
+            IDLE_THREADS.addFirst(thread);
+            return new ExecutionResult(null, System.nanoTime() - startTime, false);
+        } catch (InterruptedException e) {
+            // Never pass this off as a result, which would be recorded (and cached)
+            abandon(thread, future, runner.get());
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException(
+                "interrupted while executing " + id);
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * Helper function that gives up on an execution that may still be running: its
+     * thread is interrupted, lowered to the minimum priority in case it ignores the
+     * interruption, and never handed another execution.
+     *
+     * @param thread the single-thread executor running the execution
+     * @param future the execution
+     * @param runner the thread running the execution, or null if it has not started
+     */
+    private static void abandon(ExecutorService thread, Future<String> future,
+                                Thread runner) {
+        future.cancel(true);
+        thread.shutdown();
+        if (runner != null) {
+            runner.setPriority(Thread.MIN_PRIORITY);
+        }
+    }
+
+    /**
+     * Helper function that finds the method defining the function under test in a
+     * class.
+     *
+     * @param cls the class
+     * @return the method, or null if cls does not declare one
+     */
+    private Method findMethod(Class<?> cls) {
+        try {
+            Method method = cls.getDeclaredMethod(this.funcName, List.class);
+            int modifiers = method.getModifiers();
+            if (Modifier.isPublic(modifiers) && Modifier.isStatic(modifiers)
+                    && APyObj.class.isAssignableFrom(method.getReturnType())) {
+                return method;
+            }
+        } catch (NoSuchMethodException e) {
+            // Fall through
+        }
+        return null;
+    }
+
+    /**
+     * Helper function that invokes a static method defining the function under test,
+     * unwrapping any exception that it throws.
+     *
+     * @param method the method
+     * @param args   the arguments of the test case
+     * @return the result of the method
+     */
+    private static APyObj invoke(Method method, List<APyObj> args) {
+        try {
+            return (APyObj) method.invoke(null, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            // A checked exception, declared by the method
+            throw new UndeclaredThrowableException(e.getCause());
+        }
+    }
+
+    /**
+     * Helper function that reads the bytecode of a class.
+     *
+     * @param cls the class
+     * @return the bytecode of cls, one char per byte
+     * @throws IOException if the bytecode cannot be found or read
+     */
+    private static String readBytecode(Class<?> cls) throws IOException {
+        String resource = cls.getName().replace('.', '/') + ".class";
+        ClassLoader loader = cls.getClassLoader() != null ? cls.getClassLoader()
+            : ClassLoader.getSystemClassLoader();
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("cannot read the bytecode of " + cls.getName());
+            }
+            return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,925 @@
+package main.rice.test;
+
+import main.rice.concisegen.CompressedCoverMatrix;
+import main.rice.concisegen.TestCostModel;
+import main.rice.metrics.Counter;
+import main.rice.metrics.HistogramFamily;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.ProgressReporter;
+import main.rice.metrics.Timer;
+import main.rice.metrics.WorkUnitEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntToLongFunction;
+
+/**
+ * A concurrent counterpart to Tester, with the same inputs and outputs. The reference
+ * solution and every implementation are executed by an AExecutor: by default, a
+ * PythonExecutor, which runs them on persistent Python interpreters. The work is split
+ * into units of (implementation, batch of consecutive test cases) which are scheduled on
+ * a bounded pool of threads. Each thread blocks on a single execution at a time, so the
+ * parallelism also bounds the number of interpreters executing at any one time.
+ *
+ * By default, implementations only send back a fingerprint of each result, which is
+ * compared with the fingerprint of the reference solution's result; the reference
+ * solution always sends back its full results. If mismatches are to be reported (see
+ * setReportMismatches()), the first test case whose fingerprint mismatches is executed
+ * again to fetch the full output (see getMismatches()).
+ *
+ * Each work unit is also emitted as a WorkUnitEvent, for Java Flight Recorder.
+ *
+ * Implementations are numbered in the order given by the executor (for Python files, the
+ * lexicographic order of their file names), and each
+ * result is stored at its (implementation, test case) position, so the TestResults
+ * produced are the same regardless of the order in which work units finish.
+ */
+public class ParallelTester {
+
+    /**
+     * The default number of test cases in a single work unit.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * The default maximum time for a single execution, in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Executes the reference solution and the implementations.
+     */
+    private final AExecutor executor;
+
+    /**
+     * The identifiers of the (buggy) implementations, in the executor's order.
+     */
+    private final List<String> impls;
+
+    /**
+     * The test cases to execute.
+     */
+    private final List<TestCase> tests;
+
+    /**
+     * The number of work units executed at once.
+     */
+    private int parallelism;
+
+    /**
+     * The number of test cases in a single work unit.
+     */
+    private int batchSize;
+
+    /**
+     * The maximum time for a single execution, in milliseconds.
+     */
+    private long timeoutMillis;
+
+    /**
+     * The timeout for an implementation is this multiple of the reference solution's
+     * execution time on the same test case, or 0 to always use the fixed timeout.
+     */
+    private double timeoutMultiple;
+
+    /**
+     * The minimum timeout for an implementation, in milliseconds, when timeouts are
+     * derived from the reference solution.
+     */
+    private long timeoutFloorMillis;
+
+    /**
+     * Whether implementations send back fingerprints of their results rather than the
+     * results themselves.
+     */
+    private boolean fingerprints;
+
+    /**
+     * Whether to record the first mismatch of each implementation.
+     */
+    private boolean reportMismatches;
+
+    /**
+     * The directory of the caches of reference outputs and of per-implementation
+     * results, or null if there are none.
+     */
+    private Path cacheDir;
+
+    /**
+     * The output of the reference solution on each test case, once computed.
+     */
+    private List<String> expectedResults;
+
+    /**
+     * The fingerprint of the output of the reference solution on each test case; set
+     * along with expectedResults.
+     */
+    private String[] expectedFingerprints;
+
+    /**
+     * The execution time of the reference solution on each test case, in nanoseconds,
+     * or -1 if unknown; set along with expectedResults.
+     */
+    private long[] referenceNanos;
+
+    /**
+     * The first mismatch of each implementation executed by runTests(), keyed by its
+     * identifier.
+     */
+    private final Map<String, Mismatch> mismatches;
+
+    /**
+     * The registry that testing is measured in.
+     */
+    private MetricsRegistry metrics;
+
+    /**
+     * Counts the executions, of the reference solution and of implementations alike.
+     */
+    private Counter executions;
+
+    /**
+     * Counts the executions killed for exceeding their timeout.
+     */
+    private Counter timeouts;
+
+    /**
+     * Counts the executions abandoned because their interpreter crashed.
+     */
+    private Counter crashes;
+
+    /**
+     * Counts the reference outputs and implementation outcomes found in the cache.
+     */
+    private Counter cacheHits;
+
+    /**
+     * Measures the time taken by each execution.
+     */
+    private Timer executionTimer;
+
+    /**
+     * Reports the progress of testing.
+     */
+    private ProgressReporter progress;
+
+    /**
+     * Records the distribution of execution times of each implementation.
+     */
+    private HistogramFamily latencyByImpl;
+
+    /**
+     * Records the distribution of execution times on test cases of each size (the
+     * number of Python objects in their arguments), in power-of-two ranges.
+     */
+    private HistogramFamily latencyBySize;
+
+    /**
+     * Measures the time taken by computeExpectedResults().
+     */
+    private Timer referenceTimer;
+
+    /**
+     * Measures the time taken by runTests(), not counting computing the expected results.
+     */
+    private Timer implTimer;
+
+    /**
+     * Constructor for a ParallelTester of Python files, run with "python3"; by default,
+     * runs one work unit per available processor.
+     *
+     * @param funcName     the name of the function under test
+     * @param solutionPath the path to the reference solution
+     * @param implDirPath  the path to the directory containing the implementations
+     * @param tests        the test cases to execute
+     * @throws IOException if the directory of implementations cannot be listed
+     */
+    public ParallelTester(String funcName, String solutionPath, String implDirPath,
+                          List<TestCase> tests) throws IOException {
+        this(new PythonExecutor("python3", funcName, solutionPath, implDirPath), tests);
+    }
+
+    /**
+     * Constructor for a ParallelTester of the code run by an arbitrary executor; by
+     * default, runs one work unit per available processor.
+     *
+     * @param executor executes the reference solution and the implementations
+     * @param tests    the test cases to execute
+     */
+    public ParallelTester(AExecutor executor, List<TestCase> tests) {
+        this.executor = executor;
+        this.impls = executor.getImpls();
+        this.tests = tests;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        this.fingerprints = true;
+        this.mismatches = new ConcurrentHashMap<>();
+        executor.setParallelism(this.parallelism);
+        this.setMetrics(MetricsRegistry.DISABLED);
+        this.progress = ProgressReporter.DISABLED;
+    }
+
+    /**
+     * Sets the number of work units executed at once.
+     *
+     * @param parallelism the number of work units executed at once
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        this.executor.setParallelism(parallelism);
+    }
+
+    /**
+     * Sets the number of test cases in a single work unit.
+     *
+     * @param batchSize the number of test cases in a single work unit
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum time for a single execution.
+     *
+     * @param timeoutMillis the maximum time for a single execution, in milliseconds
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Derives the timeout for each execution of an implementation from the execution
+     * time of the reference solution on the same test case, so that infinite loops are
+     * killed quickly. The fixed timeout still applies to the reference solution, and to
+     * test cases whose reference execution time is unknown.
+     *
+     * @param multiple    the timeout as a multiple of the reference execution time
+     * @param floorMillis the minimum timeout, in milliseconds
+     */
+    public void setAdaptiveTimeout(double multiple, long floorMillis) {
+        this.timeoutMultiple = multiple;
+        this.timeoutFloorMillis = floorMillis;
+    }
+
+    /**
+     * Sets whether implementations send back fingerprints of their results (the
+     * default), which saves transferring and comparing large results, or the results
+     * themselves.
+     *
+     * @param fingerprints whether implementations send back fingerprints
+     */
+    public void setFingerprints(boolean fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Sets whether to record the first mismatch of each implementation (by default, no
+     * mismatch is recorded). When fingerprints are received, recording a mismatch costs
+     * one more execution per implementation caught, to fetch its full output.
+     *
+     * @param reportMismatches whether to record mismatches, for getMismatches()
+     */
+    public void setReportMismatches(boolean reportMismatches) {
+        this.reportMismatches = reportMismatches;
+    }
+
+    /**
+     * Sets the directory of a persistent cache of reference outputs and of per-
+     * implementation results, so that the reference solution is only executed on test
+     * cases that are not in the cache, and implementations only on test cases they have
+     * not been executed on before (in their current form, and with the same timeouts).
+     *
+     * @param cacheDir the cache directory
+     */
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Sets the registry that testing is measured in: the number of executions (and the
+     * rate at which they run), how many were abandoned, how long each took (overall, and
+     * as histograms per implementation and per size of test case), how long each stage
+     * took, and how many results came from the cache.
+     *
+     * @param metrics the metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.executions = metrics.counter("feat_tester_executions_total",
+            "Executions of the reference solution and implementations");
+        this.timeouts = metrics.counter("feat_tester_timeouts_total",
+            "Executions killed for exceeding their timeout");
+        this.crashes = metrics.counter("feat_tester_crashes_total",
+            "Executions abandoned because their interpreter crashed");
+        this.cacheHits = metrics.counter("feat_tester_cache_hits_total",
+            "Reference outputs and implementation outcomes found in the cache");
+        this.executionTimer = metrics.timer("feat_tester_execution_seconds",
+            "Time taken by each execution");
+        this.latencyByImpl = metrics.histograms("feat_tester_latency_seconds",
+            "Execution times of each implementation", "impl");
+        this.latencyBySize = metrics.histograms("feat_tester_latency_by_size_seconds",
+            "Execution times by number of objects in the arguments", "size");
+        this.referenceTimer = metrics.timer("feat_tester_reference_seconds",
+            "Time taken to compute the expected results");
+        this.implTimer = metrics.timer("feat_tester_impls_seconds",
+            "Time taken to test the implementations");
+        Counter executed = this.executions;
+        Timer reference = this.referenceTimer;
+        Timer impls = this.implTimer;
+        metrics.gauge("feat_tester_executions_per_second", "Executions per second of testing",
+            () -> MetricsRegistry.ratio(executed.get(),
+                reference.getTotalSeconds() + impls.getTotalSeconds()));
+    }
+
+    /**
+     * Sets the reporter that the progress of testing is reported to, as a "reference"
+     * stage (executions of the reference solution) and a "test" stage (executions of
+     * implementations); the total of each is the number of executions planned, after
+     * skipping whatever the cache and the equivalence classes make unnecessary.
+     *
+     * @param progress the progress reporter
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Returns the identifiers of the implementations (for Python files, their paths);
+     * the i-th identifier is file i in the results.
+     *
+     * @return the identifiers of the implementations
+     */
+    public List<String> getImpls() {
+        return this.impls;
+    }
+
+    /**
+     * Returns the execution time of the reference solution on each test case, e.g. as
+     * the costs of a weighted set cover (see TestCostModel.fromMeasured()).
+     *
+     * @return the execution time of the reference solution on each test case (index i),
+     * in nanoseconds, or -1 where unknown; null until the expected results are computed
+     */
+    public long[] getReferenceNanos() {
+        return this.referenceNanos;
+    }
+
+    /**
+     * Returns, for each implementation caught by runTests(), the first test case whose
+     * output revealed the bug, along with the full outputs compared; the output is
+     * "timed out" (or "crashed") if executing the implementation again to fetch it was
+     * abandoned. Nothing is recorded unless setReportMismatches(true) was called, and
+     * implementations caught only by outcomes found in the cache, or only by abandoned
+     * executions (e.g. timeouts), have no mismatch to report.
+     *
+     * @return the first mismatch of each implementation, keyed by its identifier, in the
+     * executor's order
+     */
+    public Map<String, Mismatch> getMismatches() {
+        Map<String, Mismatch> ordered = new LinkedHashMap<>();
+        for (String id : this.impls) {
+            Mismatch mismatch = this.mismatches.get(id);
+            if (mismatch != null) {
+                ordered.put(id, mismatch);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Executes the reference solution on every test case, skipping test cases whose
+     * output is in the cache (if there is one), and adding the rest to it.
+     *
+     * @return the output of the reference solution on each test case (index i)
+     * @throws IOException          if an interpreter cannot be started
+     * @throws InterruptedException if interrupted while waiting for the executions
+     */
+    public List<String> computeExpectedResults() throws IOException, InterruptedException {
+        long start = this.referenceTimer.start();
+        String[] outputs = new String[this.tests.size()];
+        long[] nanos = new long[this.tests.size()];
+        Arrays.fill(nanos, -1);
+        String reference = this.executor.getReference();
+        if (this.cacheDir == null) {
+            this.runUnits(List.of(reference), List.of(allCases(this.tests.size())),
+                caseIndex -> this.timeoutMillis, false, "reference",
+                (implIndex, caseIndex, result) -> {
+                    outputs[caseIndex] = result.getOutput();
+                    nanos[caseIndex] = result.getNanos();
+                });
+        } else {
+            try (ExpectedResultsCache cache = new ExpectedResultsCache(this.cacheDir,
+                    this.executor.getSource(reference), this.executor.getFuncName())) {
+                List<Integer> missing = new ArrayList<>();
+                for (int caseIndex = 0; caseIndex < this.tests.size(); caseIndex++) {
+                    ExecutionResult cached = cache.get(this.tests.get(caseIndex));
+                    if (cached == null) {
+                        missing.add(caseIndex);
+                    } else {
+                        outputs[caseIndex] = cached.getOutput();
+                        nanos[caseIndex] = cached.getNanos();
+                        this.cacheHits.inc();
+                    }
+                }
+                this.runUnits(List.of(reference), List.of(missing),
+                    caseIndex -> this.timeoutMillis, false, "reference",
+                    (implIndex, caseIndex, result) -> {
+                        outputs[caseIndex] = result.getOutput();
+                        nanos[caseIndex] = result.getNanos();
+                        if (!result.isAbandoned()) {
+                            cache.put(this.tests.get(caseIndex), result);
+                        }
+                    });
+                cache.prune();
+            }
+        }
+        this.expectedResults = Arrays.asList(outputs);
+        this.expectedFingerprints = new String[outputs.length];
+        for (int caseIndex = 0; caseIndex < outputs.length; caseIndex++) {
+            if (outputs[caseIndex] != null) {
+                this.expectedFingerprints[caseIndex] = PythonWorker.fingerprint(outputs[caseIndex]);
+            }
+        }
+        this.referenceNanos = nanos;
+        this.referenceTimer.stop(start);
+        return this.expectedResults;
+    }
+
+    /**
+     * Executes every implementation on every test case, and compares the results with
+     * those of the reference solution; an implementation is caught by a test case if
+     * its output differs, or if its execution was abandoned (including being killed for
+     * exceeding its timeout). Computes the expected results first if need be. If there
+     * is a cache, implementations are only executed on the test cases whose outcomes
+     * are not in it, and the outcomes of every implementation executed are added to it.
+     * Of the implementations that need executing, only one per class of equivalent
+     * implementations (see AExecutor.getEquivalenceKey()) is executed, on every test
+     * case that any member needs; its results are shared by the whole class.
+     *
+     * @return the results of testing
+     * @throws IOException          if an interpreter cannot be started
+     * @throws InterruptedException if interrupted while waiting for the executions
+     */
+    public TestResults runTests() throws IOException, InterruptedException {
+        return this.buildResults(this.runImpls());
+    }
+
+    /**
+     * A variant of runTests() that writes the row of each test case into a
+     * CompressedCoverMatrix as soon as the row is finished, so the results of testing are
+     * never held as a List of Sets.
+     *
+     * @param dir the directory to hold the matrix's backing file, or null to keep the
+     *            compressed rows on the heap
+     * @return the results of testing, which the caller must close
+     * @throws IOException          if an interpreter cannot be started, or the matrix
+     *                              cannot be written
+     * @throws InterruptedException if interrupted while waiting for the executions
+     */
+    public CompressedCoverMatrix runTestsCompressed(Path dir)
+            throws IOException, InterruptedException {
+        BitSet[] caught = this.runImpls();
+        CompressedCoverMatrix.Writer writer = CompressedCoverMatrix.Writer.open(
+            this.impls.size(), dir);
+        try {
+            for (int caseIndex = 0; caseIndex < this.tests.size(); caseIndex++) {
+                writer.addRow(caughtFiles(caught, caseIndex));
+            }
+            return writer.build();
+        } catch (IOException | RuntimeException e) {
+            writer.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Helper function that executes every implementation on every test case, reusing
+     * cached outcomes and sharing the outcomes of equivalent implementations.
+     *
+     * @return the set of test cases that caught each implementation (index i)
+     * @throws IOException          if an interpreter cannot be started
+     * @throws InterruptedException if interrupted while waiting for the executions
+     */
+    private BitSet[] runImpls() throws IOException, InterruptedException {
+        if (this.expectedResults == null) {
+            this.computeExpectedResults();
+        }
+        long start = this.implTimer.start();
+
+        // Reuse the outcomes of implementations on test cases they have been executed on
+        // before, and note which test cases each implementation still needs
+        BitSet[] caught = new BitSet[this.impls.size()];
+        List<BitSet> missing = new ArrayList<>();
+        ResultRowCache rowCache = null;
+        if (this.cacheDir != null) {
+            rowCache = new ResultRowCache(this.cacheDir.resolve("rows"),
+                this.executor.getSource(this.executor.getReference()),
+                this.executor.getFuncName(), this.timeoutPolicy(), this.tests);
+        }
+        List<Integer> toRun = new ArrayList<>();
+        for (int implIndex = 0; implIndex < caught.length; implIndex++) {
+            BitSet known = new BitSet(this.tests.size());
+            caught[implIndex] = rowCache == null ? new BitSet(this.tests.size())
+                : rowCache.get(this.executor.getSource(this.impls.get(implIndex)), known);
+            this.cacheHits.add(known.cardinality());
+            BitSet unknown = new BitSet(this.tests.size());
+            unknown.set(0, this.tests.size());
+            unknown.andNot(known);
+            missing.add(unknown);
+            if (!unknown.isEmpty()) {
+                toRun.add(implIndex);
+            }
+        }
+
+        // Group the rest into classes of equivalent implementations, and execute only
+        // the first member of each class, on every test case that some member needs
+        Map<String, List<Integer>> classes = new LinkedHashMap<>();
+        for (int implIndex : toRun) {
+            String hash = this.executor.getEquivalenceKey(this.impls.get(implIndex));
+            classes.computeIfAbsent(hash, key -> new ArrayList<>()).add(implIndex);
+        }
+        List<String> ids = new ArrayList<>();
+        List<List<Integer>> caseIndices = new ArrayList<>();
+        List<BitSet> executed = new ArrayList<>();
+        for (List<Integer> members : classes.values()) {
+            BitSet needed = new BitSet(this.tests.size());
+            for (int implIndex : members) {
+                needed.or(missing.get(implIndex));
+            }
+            ids.add(this.impls.get(members.get(0)));
+            caseIndices.add(needed.stream().boxed().toList());
+            executed.add(new BitSet(this.tests.size()));
+        }
+        this.runUnits(ids, caseIndices, this::implTimeout,
+            this.fingerprints, "test", (runIndex, caseIndex, result) -> {
+                boolean isCaught = this.isCaught(caseIndex, result);
+                BitSet row = executed.get(runIndex);
+                synchronized (row) {
+                    row.set(caseIndex, isCaught);
+                }
+                if (this.reportMismatches && isCaught && !result.isAbandoned()) {
+                    this.recordMismatch(ids.get(runIndex), caseIndex, result);
+                }
+            });
+
+        // Fill in each member's missing outcomes (and mismatch) from its representative's
+        int runIndex = 0;
+        for (List<Integer> members : classes.values()) {
+            BitSet row = executed.get(runIndex);
+            Mismatch mismatch = this.mismatches.get(ids.get(runIndex++));
+            for (int implIndex : members) {
+                BitSet fresh = (BitSet) row.clone();
+                fresh.and(missing.get(implIndex));
+                caught[implIndex].or(fresh);
+                if (mismatch != null && fresh.get(mismatch.getCaseIndex())) {
+                    this.mismatches.put(this.impls.get(implIndex), mismatch);
+                }
+            }
+        }
+        if (rowCache != null) {
+            for (int implIndex : toRun) {
+                rowCache.put(this.executor.getSource(this.impls.get(implIndex)),
+                    caught[implIndex]);
+            }
+            rowCache.prune();
+        }
+        this.implTimer.stop(start);
+        return caught;
+    }
+
+    /**
+     * Helper function that describes the timeouts that implementations are executed
+     * with, as part of the key of their cached results.
+     *
+     * @return the fixed timeout, and the multiple and floor of adaptive timeouts
+     */
+    private String timeoutPolicy() {
+        return this.timeoutMillis + "ms/" + this.timeoutMultiple + "x/"
+            + this.timeoutFloorMillis + "ms";
+    }
+
+    /**
+     * Helper function that computes the timeout for executing an implementation on a
+     * test case.
+     *
+     * @param caseIndex the index of the test case
+     * @return the timeout, in milliseconds
+     */
+    private long implTimeout(int caseIndex) {
+        long nanos = this.referenceNanos[caseIndex];
+        if (this.timeoutMultiple <= 0 || nanos < 0) {
+            return this.timeoutMillis;
+        }
+        long adaptive = (long) Math.ceil(this.timeoutMultiple * nanos / 1_000_000.0);
+        return Math.max(this.timeoutFloorMillis, adaptive);
+    }
+
+    /**
+     * Helper function that determines whether an execution reveals a bug.
+     *
+     * @param caseIndex the index of the test case
+     * @param result    the result of executing an implementation on the test case
+     * @return true if the implementation is caught by the test case
+     */
+    private boolean isCaught(int caseIndex, ExecutionResult result) {
+        String expected = this.fingerprints ? this.expectedFingerprints[caseIndex]
+            : this.expectedResults.get(caseIndex);
+        if (expected == null) {
+            // The reference solution itself failed, so there is nothing to compare with
+            return false;
+        }
+        return result.isAbandoned() || !expected.equals(result.getOutput());
+    }
+
+    /**
+     * Helper function that records a mismatch of an implementation, unless one on an
+     * earlier test case is already recorded; if only the fingerprint of the output was
+     * received, executes the implementation again to fetch the full output, which is
+     * recorded as "timed out" (or "crashed") if that execution is abandoned.
+     *
+     * @param id        the identifier of the implementation
+     * @param caseIndex the index of the test case that caught the implementation
+     * @param result    the (non-abandoned) result of the execution
+     * @throws IOException if the implementation cannot be executed again
+     */
+    private void recordMismatch(String id, int caseIndex, ExecutionResult result)
+            throws IOException {
+        Mismatch earlier = this.mismatches.get(id);
+        if (earlier != null && earlier.getCaseIndex() <= caseIndex) {
+            return;
+        }
+        String actual = result.getOutput();
+        if (this.fingerprints) {
+            ExecutionResult full = this.executor.execute(id, this.tests.get(caseIndex),
+                this.implTimeout(caseIndex), false);
+            if (full.isAbandoned()) {
+                actual = full.isTimedOut() ? "timed out" : "crashed";
+            } else {
+                actual = full.getOutput();
+            }
+        }
+        Mismatch mismatch = new Mismatch(caseIndex, this.tests.get(caseIndex),
+            this.expectedResults.get(caseIndex), actual);
+        this.mismatches.merge(id, mismatch, (current, candidate) ->
+            current.getCaseIndex() <= candidate.getCaseIndex() ? current : candidate);
+    }
+
+    /**
+     * Helper function that assembles TestResults from the rows of outcomes, visiting
+     * test cases and implementations in index order.
+     *
+     * @param caught the set of test cases that caught each implementation (index i)
+     * @return the results of testing
+     */
+    private TestResults buildResults(BitSet[] caught) {
+        List<Set<Integer>> caseToFiles = new ArrayList<>();
+        Set<Integer> wrongSet = new HashSet<>();
+        for (int caseIndex = 0; caseIndex < this.tests.size(); caseIndex++) {
+            Set<Integer> files = new HashSet<>();
+            for (int implIndex : caughtFiles(caught, caseIndex)) {
+                files.add(implIndex);
+            }
+            wrongSet.addAll(files);
+            caseToFiles.add(files);
+        }
+        return new TestResults(this.tests, caseToFiles, wrongSet);
+    }
+
+    /**
+     * Helper function that lists the implementations caught by a test case.
+     *
+     * @param caught    the set of test cases that caught each implementation (index i)
+     * @param caseIndex the index of the test case
+     * @return the indices of the implementations caught, in increasing order
+     */
+    private static int[] caughtFiles(BitSet[] caught, int caseIndex) {
+        int[] files = new int[caught.length];
+        int numCaught = 0;
+        for (int implIndex = 0; implIndex < caught.length; implIndex++) {
+            if (caught[implIndex].get(caseIndex)) {
+                files[numCaught++] = implIndex;
+            }
+        }
+        return Arrays.copyOf(files, numCaught);
+    }
+
+    /**
+     * Helper function that executes each of the given implementations on its own list of
+     * test cases, split into work units of (implementation, batch of test cases),
+     * and passes each result to the given sink. Units for the same implementation are
+     * consecutive, so that the interpreters for an implementation are reused before
+     * moving on to the next. Releases the executor's resources once done.
+     *
+     * @param ids         the identifiers of the implementations to execute
+     * @param caseIndices the indices of the test cases to execute on each implementation
+     *                    (index i), in order
+     * @param timeouts    gives the timeout for each test case, in milliseconds
+     * @param fingerprint whether to receive fingerprints of results, rather than the
+     *                    results themselves
+     * @param stageName   the name of the stage of the progress reporter that counts the
+     *                    executions
+     * @param sink        receives the result of each execution; may be called
+     *                    concurrently, but never twice for the same (implementation,
+     *                    test case)
+     * @throws IOException          if an implementation cannot be started, or the sink
+     *                              fails
+     * @throws InterruptedException if interrupted while waiting for the executions
+     */
+    private void runUnits(List<String> ids, List<List<Integer>> caseIndices,
+                          IntToLongFunction timeouts, boolean fingerprint,
+                          String stageName, ResultSink sink)
+            throws IOException, InterruptedException {
+        long planned = 0;
+        for (List<Integer> implCases : caseIndices) {
+            planned += implCases.size();
+        }
+        ProgressReporter.Stage stage = this.progress.stage(stageName, planned);
+        ExecutorService threads = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            List<Future<Void>> units = new ArrayList<>();
+            for (int implIndex = 0; implIndex < ids.size(); implIndex++) {
+                List<Integer> implCases = caseIndices.get(implIndex);
+                for (int start = 0; start < implCases.size(); start += this.batchSize) {
+                    int unitImpl = implIndex;
+                    List<Integer> batch = implCases.subList(start,
+                        Math.min(start + this.batchSize, implCases.size()));
+                    units.add(threads.submit(() -> {
+                        String id = ids.get(unitImpl);
+                        WorkUnitEvent event = new WorkUnitEvent();
+                        event.begin();
+                        int abandoned = 0;
+                        for (int caseIndex : batch) {
+                            ExecutionResult result = this.executor.execute(id,
+                                this.tests.get(caseIndex), timeouts.applyAsLong(caseIndex),
+                                fingerprint);
+                            this.recordExecution(id, this.tests.get(caseIndex), result);
+                            abandoned += result.isAbandoned() ? 1 : 0;
+                            sink.accept(unitImpl, caseIndex, result);
+                            stage.inc();
+                        }
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.impl = id;
+                            event.reference = id.equals(this.executor.getReference());
+                            event.firstCase = batch.get(0);
+                            event.numCases = batch.size();
+                            event.abandoned = abandoned;
+                            event.commit();
+                        }
+                        return null;
+                    }));
+                }
+            }
+
+            // Wait for every unit, surfacing the first failure
+            for (Future<Void> unit : units) {
+                try {
+                    unit.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException ioException) {
+                        throw ioException;
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            stage.finish();
+            threads.shutdownNow();
+            this.executor.close();
+        }
+    }
+
+    /**
+     * Helper function that records the metrics of a single execution.
+     *
+     * @param id     the identifier of the implementation executed
+     * @param test   the test case
+     * @param result the result of the execution
+     */
+    private void recordExecution(String id, TestCase test, ExecutionResult result) {
+        this.executions.inc();
+        this.executionTimer.record(result.getNanos());
+        if (this.metrics.isEnabled()) {
+            long size = (long) TestCostModel.estimateCost(test);
+            this.latencyByImpl.get(id).record(result.getNanos());
+            this.latencyBySize.get(HistogramFamily.powerOfTwoRange(size)).record(result.getNanos());
+        }
+        if (result.isTimedOut()) {
+            this.timeouts.inc();
+        } else if (result.isAbandoned()) {
+            this.crashes.inc();
+        }
+    }
+
+    /**
+     * Helper function that lists every test case index.
+     *
+     * @param numCases the number of test cases
+     * @return the list [0, 1, ..., numCases - 1]
+     */
+    private static List<Integer> allCases(int numCases) {
+        List<Integer> caseIndices = new ArrayList<>();
+        for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+            caseIndices.add(caseIndex);
+        }
+        return caseIndices;
+    }
+
+    /**
+     * A test case that caught an implementation by its output, along with the full
+     * outputs of the reference solution and of the implementation.
+     */
+    public static class Mismatch {
+
+        /**
+         * The index of the test case.
+         */
+        private final int caseIndex;
+
+        /**
+         * The test case.
+         */
+        private final TestCase test;
+
+        /**
+         * The output of the reference solution.
+         */
+        private final String expected;
+
+        /**
+         * The output of the implementation.
+         */
+        private final String actual;
+
+        /**
+         * Constructor for a Mismatch.
+         *
+         * @param caseIndex the index of the test case
+         * @param test      the test case
+         * @param expected  the output of the reference solution
+         * @param actual    the output of the implementation
+         */
+        private Mismatch(int caseIndex, TestCase test, String expected, String actual) {
+            this.caseIndex = caseIndex;
+            this.test = test;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * Returns the index of the test case.
+         *
+         * @return the test case index
+         */
+        public int getCaseIndex() {
+            return this.caseIndex;
+        }
+
+        /**
+         * Returns the test case.
+         *
+         * @return the test case
+         */
+        public TestCase getTest() {
+            return this.test;
+        }
+
+        /**
+         * Returns the output of the reference solution.
+         *
+         * @return the expected output
+         */
+        public String getExpected() {
+            return this.expected;
+        }
+
+        /**
+         * Returns the output of the implementation.
+         *
+         * @return the actual output
+         */
+        public String getActual() {
+            return this.actual;
+        }
+    }
+
+    /**
+     * Receives the result of a single execution.
+     */
+    @FunctionalInterface
+    private interface ResultSink {
+
+        /**
+         * Receives the result of executing an implementation on a test case.
+         *
+         * @param implIndex the index of the implementation
+         * @param caseIndex the index of the test case
+         * @param result    the result of the execution
+         * @throws IOException if the result cannot be recorded
+         */
+        void accept(int implIndex, int caseIndex, ExecutionResult result) throws IOException;
+    }
+}
@@ -0,0 +1,230 @@
+package main.rice.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An executor for Python code, in which the reference solution and every implementation
+ * is a Python file that defines the function under test, identified by its path. Files
+ * are executed on persistent interpreters from a PythonWorkerPool, and files whose
+ * source differs only in comments and whitespace are recognized as equivalent (see
+ * SourceNormalizer). The pool is either the executor's own, or one shared with other
+ * executors (e.g. by a Daemon, so that interpreters stay warm from one job to the next);
+ * the contents of each file are hashed once per executor, so a shared interpreter is
+ * only reused if its file has not changed since it was imported.
+ */
+public class PythonExecutor extends AExecutor {
+
+    /**
+     * The command used to launch each interpreter.
+     */
+    private final String python;
+
+    /**
+     * The path to the reference solution.
+     */
+    private final String solutionPath;
+
+    /**
+     * The paths to the implementations, in lexicographic order.
+     */
+    private final List<String> implPaths;
+
+    /**
+     * The pool of interpreters.
+     */
+    private PythonWorkerPool pool;
+
+    /**
+     * Whether the pool is shared with other executors, and so must not be replaced or
+     * closed by this one.
+     */
+    private final boolean sharedPool;
+
+    /**
+     * The hash of the contents of each file executed so far, keyed by its path.
+     */
+    private final Map<String, String> contentHashes;
+
+    /**
+     * Constructor for a PythonExecutor; by default, keeps one idle interpreter per
+     * available processor.
+     *
+     * @param python       the command used to launch each interpreter, e.g. "python3"
+     * @param funcName     the name of the function under test
+     * @param solutionPath the path to the reference solution
+     * @param implDirPath  the path to the directory containing the implementations
+     * @throws IOException if the directory of implementations cannot be listed
+     */
+    public PythonExecutor(String python, String funcName, String solutionPath,
+                          String implDirPath) throws IOException {
+        super(funcName);
+        this.python = python;
+        this.solutionPath = solutionPath;
+        this.implPaths = listImpls(implDirPath);
+        this.pool = new PythonWorkerPool(python, Runtime.getRuntime().availableProcessors());
+        this.sharedPool = false;
+        this.contentHashes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Constructor for a PythonExecutor that borrows its interpreters from a shared pool,
+     * which it never resizes or closes.
+     *
+     * @param pool         the shared pool of interpreters
+     * @param funcName     the name of the function under test
+     * @param solutionPath the path to the reference solution
+     * @param implDirPath  the path to the directory containing the implementations
+     * @throws IOException if the directory of implementations cannot be listed
+     */
+    public PythonExecutor(PythonWorkerPool pool, String funcName, String solutionPath,
+                          String implDirPath) throws IOException {
+        super(funcName);
+        this.python = null;
+        this.solutionPath = solutionPath;
+        this.implPaths = listImpls(implDirPath);
+        this.pool = pool;
+        this.sharedPool = true;
+        this.contentHashes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the path to the reference solution.
+     *
+     * @return the path to the reference solution
+     */
+    @Override
+    public String getReference() {
+        return this.solutionPath;
+    }
+
+    /**
+     * Returns the paths to the Python files in the directory of implementations, in
+     * lexicographic order.
+     *
+     * @return the paths to the implementations
+     */
+    @Override
+    public List<String> getImpls() {
+        return this.implPaths;
+    }
+
+    /**
+     * Reads a Python file, decoding it as UTF-8 if it is valid UTF-8, or else byte by
+     * byte as ISO-8859-1 (so that a file in another encoding still has a source, which
+     * changes whenever its bytes do).
+     *
+     * @param id the path to the file
+     * @return the contents of the file
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public String getSource(String id) throws IOException {
+        byte[] bytes = Files.readAllBytes(Path.of(id));
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Reads and normalizes a Python file, and hashes the result.
+     *
+     * @param id the path to the file
+     * @return the hash of the normalized source code
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public String getEquivalenceKey(String id) throws IOException {
+        return SourceNormalizer.normalizedHash(id);
+    }
+
+    /**
+     * Executes a Python file on a single test case, using an idle interpreter for that
+     * file if there is one.
+     *
+     * @param id            the path to the file
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @param fingerprint   whether to return only the fingerprint of the result
+     * @return the result; abandoned if the execution timed out or the interpreter crashed
+     * @throws IOException if the file cannot be read, or the interpreter cannot be started
+     */
+    @Override
+    public ExecutionResult execute(String id, TestCase test, long timeoutMillis,
+                                   boolean fingerprint) throws IOException {
+        String contentHash = this.contentHashes.get(id);
+        if (contentHash == null) {
+            contentHash = ExpectedResultsCache.sha256(Files.readAllBytes(Path.of(id)));
+            this.contentHashes.put(id, contentHash);
+        }
+        PythonWorkerPool current;
+        synchronized (this) {
+            current = this.pool;
+        }
+        PythonWorker worker = current.borrow(id, this.funcName, contentHash);
+        try {
+            return worker.execute(test, timeoutMillis, fingerprint);
+        } finally {
+            current.release(worker);
+        }
+    }
+
+    /**
+     * Keeps up to one idle interpreter per concurrent execution, so that interpreters
+     * are not killed and restarted between the executions of a single caller; a shared
+     * pool is left as its owner sized it.
+     *
+     * @param parallelism the number of executions requested at once
+     */
+    @Override
+    public synchronized void setParallelism(int parallelism) {
+        if (this.sharedPool) {
+            return;
+        }
+        this.pool.close();
+        this.pool = new PythonWorkerPool(this.python, parallelism);
+    }
+
+    /**
+     * Kills every idle interpreter, unless the pool is shared.
+     */
+    @Override
+    public synchronized void close() {
+        if (!this.sharedPool) {
+            this.pool.close();
+        }
+    }
+
+    /**
+     * Helper function that lists the Python files in a directory, in lexicographic
+     * order.
+     *
+     * @param implDirPath the path to the directory
+     * @return the paths to the Python files in the directory
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<String> listImpls(String implDirPath) throws IOException {
+        File[] files = new File(implDirPath).listFiles((dir, name) -> name.endsWith(".py"));
+        if (files == null) {
+            throw new IOException("cannot list implementations in " + implDirPath);
+        }
+        List<String> paths = new ArrayList<>();
+        for (File file : files) {
+            paths.add(file.getPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+}
@@ -0,0 +1,325 @@
+package main.rice.test;
+
+import main.rice.obj.APyObj;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.StringJoiner;
+import java.util.concurrent.*;
+
+/**
+ * A long-lived Python interpreter that has imported a single implementation (or the
+ * reference solution) once, and then executes the function under test on any number of
+ * test cases. Arguments and results are exchanged over the interpreter's stdin and
+ * stdout as length-prefixed frames: a 4-byte big-endian length followed by that many
+ * bytes. Each request frame holds a mode byte followed by the comma-separated Python
+ * representations of the arguments, in UTF-8. The result of a call is repr() of the
+ * returned value (in UTF-8, with any lone surrogate backslash-escaped, so that the
+ * result always decodes to the same string whose fingerprint is computed in Java), or
+ * "Error: " followed by the name of the exception raised, including SystemExit and
+ * KeyboardInterrupt, so that no call can stop the interpreter; in full
+ * mode ('F') the response frame holds the result itself, while in fingerprint mode ('H')
+ * it holds only the hex-encoded MD5 hash of the result, which is a fixed 32 bytes no
+ * matter how large the result is. Once the module has been imported, the interpreter
+ * sends a single empty frame to signal that it is ready, so that startup time is never
+ * counted as part of an execution. If importing the implementation raises (e.g. it has a
+ * syntax error), the interpreter still signals that it is ready, and the result of every
+ * call is "Error: " followed by the name of the exception raised by the import, just as
+ * if the function itself had raised it.
+ *
+ * Startup has its own, generous timeout, independent of the timeout of each execution
+ * (which may be derived from the reference solution's execution time, and so be far
+ * shorter than the time it takes to launch an interpreter under load). An interpreter
+ * that fails to start is relaunched a few times; if it never becomes ready, execution
+ * fails with an IOException rather than returning an abandoned result, so that a slow
+ * start is never mistaken for a bug in the implementation.
+ *
+ * The interpreter is only restarted if it crashes or an execution exceeds its timeout.
+ * Instances are not thread-safe; executions on a single worker are serialized.
+ */
+public class PythonWorker implements Closeable {
+
+    /**
+     * The bootstrap script run by the interpreter. The function's own prints are sent
+     * to stderr so that they cannot corrupt the framing on stdout, and its own reads
+     * (e.g. input()) see an empty stdin so that they cannot consume request frames.
+     */
+    private static final String BOOTSTRAP = String.join("\n",
+        "import os, sys, struct, hashlib, importlib.util",
+        "out = sys.stdout.buffer",
+        "sys.stdout = sys.stderr",
+        "inp = sys.stdin.buffer",
+        "sys.stdin = open(os.devnull)",
+        "try:",
+        "    spec = importlib.util.spec_from_file_location('impl', sys.argv[1])",
+        "    mod = importlib.util.module_from_spec(spec)",
+        "    spec.loader.exec_module(mod)",
+        "    func = getattr(mod, sys.argv[2])",
+        "except BaseException as e:",
+        "    func, import_error = None, 'Error: ' + type(e).__name__",
+        "out.write(struct.pack('>I', 0))",
+        "out.flush()",
+        "def read_exact(n):",
+        "    data = b''",
+        "    while len(data) < n:",
+        "        chunk = inp.read(n - len(data))",
+        "        if not chunk:",
+        "            sys.exit(0)",
+        "        data += chunk",
+        "    return data",
+        "while True:",
+        "    (n,) = struct.unpack('>I', read_exact(4))",
+        "    request = read_exact(n)",
+        "    mode, text = request[:1], request[1:].decode('utf-8')",
+        "    try:",
+        "        args = eval('(' + text + ',)') if text else ()",
+        "        res = import_error if func is None else repr(func(*args))",
+        "        data = res.encode('utf-8', 'backslashreplace')",
+        "    except BaseException as e:",
+        "        data = ('Error: ' + type(e).__name__).encode('utf-8')",
+        "    if mode == b'H':",
+        "        data = hashlib.md5(data).hexdigest().encode('ascii')",
+        "    out.write(struct.pack('>I', len(data)))",
+        "    out.write(data)",
+        "    out.flush()",
+        "");
+
+    /**
+     * The maximum time to wait for an interpreter to start and import the
+     * implementation, in milliseconds.
+     */
+    private static final long STARTUP_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * The maximum number of attempts to start an interpreter before giving up.
+     */
+    private static final int MAX_START_ATTEMPTS = 3;
+
+    /**
+     * Kills interpreters whose execution has exceeded its timeout.
+     */
+    private static final ScheduledExecutorService WATCHDOG =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "python-worker-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * The command used to launch the interpreter.
+     */
+    private final String python;
+
+    /**
+     * The path to the Python file that defines the function under test.
+     */
+    private final String implPath;
+
+    /**
+     * The name of the function under test.
+     */
+    private final String funcName;
+
+    /**
+     * The running interpreter, or null if it needs to be (re)started.
+     */
+    private Process process;
+
+    /**
+     * The interpreter's stdin.
+     */
+    private DataOutputStream toWorker;
+
+    /**
+     * The interpreter's stdout.
+     */
+    private DataInputStream fromWorker;
+
+    /**
+     * The number of times the interpreter has been started.
+     */
+    private int starts;
+
+    /**
+     * Constructor for a PythonWorker; the interpreter is started lazily, on the first
+     * execution.
+     *
+     * @param python   the command used to launch the interpreter, e.g. "python3"
+     * @param implPath the path to the Python file that defines the function under test
+     * @param funcName the name of the function under test
+     */
+    public PythonWorker(String python, String implPath, String funcName) {
+        this.python = python;
+        this.implPath = implPath;
+        this.funcName = funcName;
+    }
+
+    /**
+     * Executes the function under test on a single test case, returning its full result.
+     *
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @return the result; abandoned if the execution timed out or the interpreter crashed
+     * @throws IOException if the interpreter cannot be started
+     */
+    public ExecutionResult execute(TestCase test, long timeoutMillis) throws IOException {
+        return this.execute(test, timeoutMillis, false);
+    }
+
+    /**
+     * Executes the function under test on a single test case.
+     *
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @param fingerprint   whether to return only the fingerprint of the result (as
+     *                      computed by fingerprint()) rather than the result itself
+     * @return the result; abandoned if the execution timed out or the interpreter crashed
+     * @throws IOException if the interpreter cannot be started, or never becomes ready
+     */
+    public synchronized ExecutionResult execute(TestCase test, long timeoutMillis,
+                                                boolean fingerprint) throws IOException {
+        if (this.process == null || !this.process.isAlive()) {
+            this.start();
+        }
+
+        byte[] request = ((fingerprint ? "H" : "F") + encodeArgs(test))
+            .getBytes(StandardCharsets.UTF_8);
+        Process current = this.process;
+        long startTime = System.nanoTime();
+        ScheduledFuture<?> kill = WATCHDOG.schedule(current::destroyForcibly,
+            timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            this.toWorker.writeInt(request.length);
+            this.toWorker.write(request);
+            this.toWorker.flush();
+
+            byte[] response = new byte[this.fromWorker.readInt()];
+            this.fromWorker.readFully(response);
+            long nanos = System.nanoTime() - startTime;
+            if (kill.cancel(false)) {
+                return new ExecutionResult(new String(response, StandardCharsets.UTF_8),
+                    nanos, false);
+            }
+            // The watchdog fired just as the response arrived; the worker is dead anyway
+            this.stop();
+            return new ExecutionResult(null, nanos, true);
+        } catch (IOException e) {
+            // Either the watchdog killed the interpreter, or it crashed on its own
+            long nanos = System.nanoTime() - startTime;
+            boolean timedOut = !kill.cancel(false);
+            this.stop();
+            return new ExecutionResult(null, nanos, timedOut);
+        }
+    }
+
+    /**
+     * Returns the path to the Python file that defines the function under test.
+     *
+     * @return the implementation path
+     */
+    public String getImplPath() {
+        return this.implPath;
+    }
+
+    /**
+     * Returns the number of times the interpreter has been started, which is one more
+     * than the number of restarts once it has been used.
+     *
+     * @return the number of starts
+     */
+    public synchronized int getStarts() {
+        return this.starts;
+    }
+
+    /**
+     * Kills the interpreter, if it is running.
+     */
+    @Override
+    public synchronized void close() {
+        this.stop();
+    }
+
+    /**
+     * Builds the request text for a test case: the Python representations of its
+     * arguments, separated by commas.
+     *
+     * @param test the test case
+     * @return the arguments of test, as Python source text
+     */
+    public static String encodeArgs(TestCase test) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (APyObj arg : test.getArgs()) {
+            joiner.add(arg.toString());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Computes the fingerprint of a result, exactly as the interpreter does in
+     * fingerprint mode: the hex-encoded MD5 hash of its UTF-8 encoding.
+     *
+     * @param output the result, e.g. the output of the reference solution
+     * @return the fingerprint of output
+     */
+    public static String fingerprint(String output) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(digest.digest(output.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper function that starts the interpreter, and waits for it to import the
+     * implementation, relaunching it if it does not become ready in time or dies first.
+     *
+     * @throws IOException if the interpreter cannot be launched, or never becomes ready
+     */
+    private void start() throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_START_ATTEMPTS; attempt++) {
+            ProcessBuilder builder = new ProcessBuilder(this.python, "-u", "-c", BOOTSTRAP,
+                this.implPath, this.funcName);
+            builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+            this.process = builder.start();
+            this.toWorker = new DataOutputStream(
+                new BufferedOutputStream(this.process.getOutputStream()));
+            this.fromWorker = new DataInputStream(
+                new BufferedInputStream(this.process.getInputStream()));
+            this.starts++;
+
+            // Wait for the ready frame
+            ScheduledFuture<?> kill = WATCHDOG.schedule(this.process::destroyForcibly,
+                STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            try {
+                this.fromWorker.readInt();
+                if (kill.cancel(false)) {
+                    return;
+                }
+                failure = new IOException("timed out starting " + this.implPath);
+            } catch (IOException e) {
+                failure = kill.cancel(false) ? new IOException("interpreter for "
+                    + this.implPath + " exited during startup", e)
+                    : new IOException("timed out starting " + this.implPath, e);
+            }
+            this.stop();
+        }
+        throw failure;
+    }
+
+    /**
+     * Helper function that kills the interpreter so that it is restarted on the next
+     * execution.
+     */
+    private void stop() {
+        if (this.process != null) {
+            this.process.destroyForcibly();
+            this.process = null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package main.rice.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A pool of persistent Python interpreters, so that each implementation pays for
+ * interpreter startup and module import only once rather than once per test case. Any
+ * number of interpreters may be running the same implementation at once; a caller
+ * borrows an interpreter for an implementation, uses it exclusively, and then returns
+ * it. Idle interpreters beyond a fixed bound are killed as they are returned.
+ *
+ * Interpreters are keyed by the path to the implementation, the function under test and
+ * a hash of the contents of the implementation, so a pool may be shared by several
+ * runs (e.g. the jobs of a Daemon): an interpreter that has imported a file is only
+ * reused while the file is unchanged, and a run whose file has changed in between
+ * starts a fresh one.
+ */
+public class PythonWorkerPool implements Closeable {
+
+    /**
+     * The command used to launch each interpreter.
+     */
+    private final String python;
+
+    /**
+     * The maximum number of idle interpreters kept alive.
+     */
+    private final int maxIdle;
+
+    /**
+     * The idle workers for each implementation, keyed by key().
+     */
+    private final Map<String, Deque<PythonWorker>> idle;
+
+    /**
+     * The idle workers in the order they were returned, oldest first.
+     */
+    private final Deque<PythonWorker> idleOrder;
+
+    /**
+     * The key of every worker created by this pool, idle or borrowed.
+     */
+    private final Map<PythonWorker, String> keys;
+
+    /**
+     * Constructor for a PythonWorkerPool.
+     *
+     * @param python  the command used to launch each interpreter, e.g. "python3"
+     * @param maxIdle the maximum number of idle interpreters kept alive
+     */
+    public PythonWorkerPool(String python, int maxIdle) {
+        this.python = python;
+        this.maxIdle = maxIdle;
+        this.idle = new HashMap<>();
+        this.idleOrder = new ArrayDeque<>();
+        this.keys = new IdentityHashMap<>();
+    }
+
+    /**
+     * Executes the function under test, as defined in the given file, on a single test
+     * case, using an idle interpreter for that file if there is one.
+     *
+     * @param implPath      the path to the Python file that defines the function
+     * @param funcName      the name of the function under test
+     * @param contentHash   a hash of the contents of the file
+     * @param test          the test case
+     * @param timeoutMillis the maximum time to wait for a result, in milliseconds
+     * @return the result; abandoned if the execution timed out or the interpreter crashed
+     * @throws IOException if the interpreter cannot be started
+     */
+    public ExecutionResult execute(String implPath, String funcName, String contentHash,
+                                   TestCase test, long timeoutMillis) throws IOException {
+        PythonWorker worker = this.borrow(implPath, funcName, contentHash);
+        try {
+            return worker.execute(test, timeoutMillis);
+        } finally {
+            this.release(worker);
+        }
+    }
+
+    /**
+     * Takes an idle worker for the given implementation out of the pool, or creates a
+     * new one if there is none.
+     *
+     * @param implPath    the path to the Python file that defines the function
+     * @param funcName    the name of the function under test
+     * @param contentHash a hash of the contents of the file, so that a worker that
+     *                    imported an earlier version of it is never handed out
+     * @return a worker for implPath, for the exclusive use of the caller
+     */
+    public synchronized PythonWorker borrow(String implPath, String funcName,
+                                            String contentHash) {
+        String key = key(implPath, funcName, contentHash);
+        Deque<PythonWorker> workers = this.idle.get(key);
+        if (workers != null && !workers.isEmpty()) {
+            PythonWorker worker = workers.pop();
+            this.idleOrder.remove(worker);
+            return worker;
+        }
+        PythonWorker worker = new PythonWorker(this.python, implPath, funcName);
+        this.keys.put(worker, key);
+        return worker;
+    }
+
+    /**
+     * Returns a borrowed worker to the pool, killing the oldest idle worker if there
+     * are now too many.
+     *
+     * @param worker the worker to return
+     */
+    public synchronized void release(PythonWorker worker) {
+        this.idle.computeIfAbsent(this.keys.get(worker), key -> new ArrayDeque<>()).push(worker);
+        this.idleOrder.addLast(worker);
+        while (this.idleOrder.size() > this.maxIdle) {
+            PythonWorker oldest = this.idleOrder.removeFirst();
+            this.idle.get(this.keys.get(oldest)).remove(oldest);
+            this.keys.remove(oldest);
+            oldest.close();
+        }
+    }
+
+    /**
+     * Kills every idle interpreter in the pool.
+     */
+    @Override
+    public synchronized void close() {
+        for (PythonWorker worker : this.idleOrder) {
+            worker.close();
+            this.keys.remove(worker);
+        }
+        this.idle.clear();
+        this.idleOrder.clear();
+    }
+
+    /**
+     * Helper function that computes the key of the workers for an implementation.
+     *
+     * @param implPath    the path to the Python file that defines the function
+     * @param funcName    the name of the function under test
+     * @param contentHash a hash of the contents of the file
+     * @return the key
+     */
+    private static String key(String implPath, String funcName, String contentHash) {
+        return implPath + "\0" + funcName + "\0" + contentHash;
+    }
+}
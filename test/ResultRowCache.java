@@ -0,0 +1,197 @@
+package main.rice.test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of the results of testing individual implementations, so that a
+ * re-run only needs to execute implementations that are new or have changed, on test
+ * cases they have not been executed on before. Each entry holds the outcome (caught or
+ * not) of one implementation on each test case of the last run that tested it, keyed by
+ * a hash of (the source of the implementation, the source of the reference solution,
+ * the name of the function under test, the timeout policy); within an entry, each
+ * outcome is keyed by a hash of the arguments of its test case. Outcomes are therefore
+ * reused test case by test case, so that an unseeded re-run still skips every test case
+ * it shares with the last run (e.g. all of the exhaustive ones), and only the random
+ * ones are executed again. Any change to the implementation, the reference solution,
+ * the function or the timeouts yields a different key, so stale entries are simply
+ * never looked up again.
+ *
+ * Each entry is stored in its own file, named after its key, which is written to a
+ * temporary file first and then moved into place, so a crash never leaves a partial
+ * entry behind. Entries are replaced rather than extended, so each one is bounded by the
+ * size of a single run; and once the cache exceeds its size limit, the least recently
+ * used entries are deleted by prune().
+ */
+public class ResultRowCache {
+
+    /**
+     * The default maximum total size of the entries, in bytes.
+     */
+    private static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    /**
+     * The suffix of the name of every entry's file.
+     */
+    private static final String ENTRY_SUFFIX = ".row";
+
+    /**
+     * The directory holding the entries.
+     */
+    private final Path dir;
+
+    /**
+     * The hash of everything but the implementation that goes into each key.
+     */
+    private final String contextHash;
+
+    /**
+     * The key of each test case (index i) within an entry.
+     */
+    private final long[] caseKeys;
+
+    /**
+     * The maximum total size of the entries, in bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * Constructor for a ResultRowCache; creates the cache directory if need be.
+     *
+     * @param dir            the directory holding the entries
+     * @param solutionSource the source of the reference solution (see
+     *                       AExecutor.getSource())
+     * @param funcName       the name of the function under test
+     * @param timeoutPolicy  a description of the timeouts that implementations are
+     *                       executed with, since they can change which are caught
+     * @param tests          the test cases, in the order used to index the vectors
+     * @throws IOException if the directory cannot be created
+     */
+    public ResultRowCache(Path dir, String solutionSource, String funcName,
+                          String timeoutPolicy, List<TestCase> tests) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.contextHash = ExpectedResultsCache.sha256(solutionSource + "\0" + funcName
+            + "\0" + timeoutPolicy);
+        this.caseKeys = new long[tests.size()];
+        for (int caseIndex = 0; caseIndex < tests.size(); caseIndex++) {
+            String hash = ExpectedResultsCache.sha256(PythonWorker.encodeArgs(tests.get(caseIndex)));
+            this.caseKeys[caseIndex] = Long.parseUnsignedLong(hash.substring(0, 16), 16);
+        }
+        this.maxBytes = DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * Sets the maximum total size of the entries, beyond which prune() deletes the least
+     * recently used ones.
+     *
+     * @param maxBytes the maximum total size of the entries, in bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up the cached outcomes of an implementation on the current test cases.
+     *
+     * @param implSource the source of the implementation
+     * @param known      receives the indices of the test cases whose outcome is cached
+     * @return the set of test case indices (among those in known) that caught the
+     * implementation; empty if the implementation (in its current form) has not been
+     * tested before
+     * @throws IOException if the entry cannot be read
+     */
+    public BitSet get(String implSource, BitSet known) throws IOException {
+        BitSet caught = new BitSet(this.caseKeys.length);
+        Path entry = this.dir.resolve(this.key(implSource) + ENTRY_SUFFIX);
+        if (!Files.exists(entry)) {
+            return caught;
+        }
+        Map<Long, Boolean> outcomes = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(entry)))) {
+            int numOutcomes = in.readInt();
+            for (int i = 0; i < numOutcomes; i++) {
+                long caseKey = in.readLong();
+                outcomes.put(caseKey, in.readBoolean());
+            }
+        }
+        for (int caseIndex = 0; caseIndex < this.caseKeys.length; caseIndex++) {
+            Boolean outcome = outcomes.get(this.caseKeys[caseIndex]);
+            if (outcome != null) {
+                known.set(caseIndex);
+                caught.set(caseIndex, outcome);
+            }
+        }
+        // Mark the entry as recently used, for prune()
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return caught;
+    }
+
+    /**
+     * Records the outcomes of an implementation on every current test case, replacing
+     * any earlier entry for it.
+     *
+     * @param implSource the source of the implementation
+     * @param caught     the set of test case indices that caught the implementation
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String implSource, BitSet caught) throws IOException {
+        Path entry = this.dir.resolve(this.key(implSource) + ENTRY_SUFFIX);
+        Path temp = Files.createTempFile(this.dir, "row", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp)))) {
+            out.writeInt(this.caseKeys.length);
+            for (int caseIndex = 0; caseIndex < this.caseKeys.length; caseIndex++) {
+                out.writeLong(this.caseKeys[caseIndex]);
+                out.writeBoolean(caught.get(caseIndex));
+            }
+        }
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the least recently used entries (of any context) until the total size of
+     * the entries is within the limit.
+     *
+     * @throws IOException if the directory cannot be listed, or an entry deleted
+     */
+    public void prune() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(this.dir)) {
+            entries = new ArrayList<>(files
+                .filter(file -> file.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                .toList());
+        }
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        long totalBytes = 0;
+        for (Path entry : entries) {
+            lastUsed.put(entry, Files.getLastModifiedTime(entry));
+            totalBytes += Files.size(entry);
+        }
+        entries.sort(Comparator.comparing(lastUsed::get));
+        for (Path entry : entries) {
+            if (totalBytes <= this.maxBytes) {
+                break;
+            }
+            totalBytes -= Files.size(entry);
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    /**
+     * Helper function that computes the key for an implementation.
+     *
+     * @param implSource the source of the implementation
+     * @return the key, which doubles as the name of the entry's file
+     */
+    private String key(String implSource) {
+        return ExpectedResultsCache.sha256(this.contextHash + "\0" + implSource);
+    }
+}
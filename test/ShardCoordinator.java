@@ -0,0 +1,336 @@
+package main.rice.test;
+
+import main.rice.concisegen.CompressedCoverMatrix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs the testing stage across several local worker JVMs. The base test set is split
+ * into contiguous shards of test case indices; each worker tests every implementation
+ * on the test cases of one shard, and writes the files caught by each of those test
+ * cases to a shard file. Once every worker has succeeded, the shard files are merged in
+ * test case order into a single TestResults (or CompressedCoverMatrix), identical to
+ * the one a single process would have produced on the same base test set (as long as
+ * every worker generates that same base test set, e.g. by seeding the generator alike,
+ * and numbers implementations alike). Workers are handled in the order they exit: a
+ * worker that exits abnormally, or does not leave a complete shard file behind, is
+ * relaunched at once, up to a fixed number of times.
+ *
+ * A shard file has one line per test case, in order: the global index of the test case,
+ * a tab, and the comma-separated indices of the files it caught; the last line is "end",
+ * so that a truncated file is never mistaken for a complete one.
+ */
+public class ShardCoordinator {
+
+    /**
+     * The maximum number of times each worker is launched.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The marker terminating every complete shard file.
+     */
+    private static final String END = "end";
+
+    /**
+     * The command that launches a worker, to which "--shard I/N --shard-out FILE" is
+     * appended.
+     */
+    private final List<String> workerCommand;
+
+    /**
+     * The number of shards.
+     */
+    private final int numShards;
+
+    /**
+     * The directory holding the shard files and the workers' logs.
+     */
+    private final Path workDir;
+
+    /**
+     * Constructor for a ShardCoordinator.
+     *
+     * @param workerCommand the command that launches a worker
+     * @param numShards     the number of shards, and of workers
+     * @param workDir       the directory holding the shard files and the workers' logs
+     */
+    public ShardCoordinator(List<String> workerCommand, int numShards, Path workDir) {
+        this.workerCommand = workerCommand;
+        this.numShards = numShards;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Launches one worker per shard, all at once, relaunches failed workers, and merges
+     * their results.
+     *
+     * @param tests the base test set, as generated by every worker
+     * @return the results of testing every implementation on every test case
+     * @throws IOException          if a worker still fails after the maximum number of
+     *                              attempts, or a shard file cannot be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public TestResults run(List<TestCase> tests) throws IOException, InterruptedException {
+        List<Set<Integer>> caseToFiles = new ArrayList<>(Collections.nCopies(tests.size(),
+            null));
+        this.runWorkers(tests.size(), (caseIndex, files) -> {
+            Set<Integer> fileSet = new HashSet<>();
+            for (int file : files) {
+                fileSet.add(file);
+            }
+            caseToFiles.set(caseIndex, fileSet);
+        });
+
+        Set<Integer> wrongSet = new HashSet<>();
+        for (Set<Integer> files : caseToFiles) {
+            wrongSet.addAll(files);
+        }
+        return new TestResults(tests, caseToFiles, wrongSet);
+    }
+
+    /**
+     * A variant of run() that merges the shard files straight into a
+     * CompressedCoverMatrix, one row at a time, so the results of testing are never
+     * held as a List of Sets.
+     *
+     * @param tests the base test set, as generated by every worker
+     * @param dir   the directory to hold the matrix's backing file, or null to keep the
+     *              compressed rows on the heap
+     * @return the results of testing every implementation on every test case, which the
+     * caller must close
+     * @throws IOException          if a worker still fails after the maximum number of
+     *                              attempts, or a shard file cannot be read, or the
+     *                              matrix cannot be written
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public CompressedCoverMatrix runCompressed(List<TestCase> tests, Path dir)
+            throws IOException, InterruptedException {
+        int[] numFiles = new int[1];
+        this.runWorkers(tests.size(), (caseIndex, files) -> {
+            for (int file : files) {
+                numFiles[0] = Math.max(numFiles[0], file + 1);
+            }
+        });
+
+        // Every shard file is complete, so merge them in order
+        CompressedCoverMatrix.Writer writer =
+            CompressedCoverMatrix.Writer.open(numFiles[0], dir);
+        try {
+            for (int shard = 0; shard < this.numShards; shard++) {
+                if (!this.readShard(shard, tests.size(),
+                        (caseIndex, files) -> writer.addRow(files))) {
+                    throw new IOException("shard file " + this.shardPath(shard)
+                        + " changed while merging");
+                }
+            }
+            return writer.build();
+        } catch (IOException | RuntimeException e) {
+            writer.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Helper function that launches one worker per shard, all at once, relaunches each
+     * failed worker as soon as it exits, and reads each complete shard file into the
+     * given sink, in the order the workers finish.
+     *
+     * @param numCases the number of test cases in the base test set
+     * @param sink     receives the row of every test case, once its shard file is
+     *                 complete; the rows of a shard may be received again if it is
+     *                 relaunched
+     * @throws IOException          if a worker still fails after the maximum number of
+     *                              attempts, or a shard file cannot be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    private void runWorkers(int numCases, RowSink sink)
+            throws IOException, InterruptedException {
+        Files.createDirectories(this.workDir);
+        Process[] workers = new Process[this.numShards];
+        int[] attempts = new int[this.numShards];
+        BlockingQueue<Integer> exited = new LinkedBlockingQueue<>();
+        try {
+            for (int shard = 0; shard < this.numShards; shard++) {
+                workers[shard] = this.launch(shard, exited);
+                attempts[shard] = 1;
+            }
+
+            // Take the workers as they exit, relaunching any that fail
+            for (int remaining = this.numShards; remaining > 0; ) {
+                int shard = exited.take();
+                if (workers[shard].exitValue() == 0
+                        && this.readShard(shard, numCases, sink)) {
+                    remaining--;
+                    continue;
+                }
+                if (attempts[shard] == MAX_ATTEMPTS) {
+                    throw new IOException("shard " + shard + " failed " + MAX_ATTEMPTS
+                        + " times; see " + this.logPath(shard));
+                }
+                workers[shard] = this.launch(shard, exited);
+                attempts[shard]++;
+            }
+        } finally {
+            for (Process worker : workers) {
+                if (worker != null) {
+                    worker.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the first test case index of a shard; shard i covers the indices from
+     * shardStart(i) up to (but not including) shardStart(i + 1).
+     *
+     * @param numCases  the number of test cases in the base test set
+     * @param shard     the index of the shard, from 0 to numShards (inclusive)
+     * @param numShards the number of shards
+     * @return the first test case index of the shard
+     */
+    public static int shardStart(int numCases, int shard, int numShards) {
+        return (int) ((long) numCases * shard / numShards);
+    }
+
+    /**
+     * Writes the results of testing one shard to a shard file, atomically.
+     *
+     * @param path    the path to the shard file
+     * @param start   the global index of the shard's first test case
+     * @param results the results of testing the shard's test cases, indexed from 0
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeShard(Path path, int start, TestResults results)
+            throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            List<Set<Integer>> caseToFiles = results.getCaseToFiles();
+            for (int caseIndex = 0; caseIndex < caseToFiles.size(); caseIndex++) {
+                StringJoiner files = new StringJoiner(",");
+                for (int file : new TreeSet<>(caseToFiles.get(caseIndex))) {
+                    files.add(Integer.toString(file));
+                }
+                out.write((start + caseIndex) + "\t" + files);
+                out.newLine();
+            }
+            out.write(END);
+            out.newLine();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Helper function that launches the worker for a shard, appending its output to
+     * the shard's log.
+     *
+     * @param shard  the index of the shard
+     * @param exited receives the index of the shard once the worker exits
+     * @return the worker process
+     * @throws IOException if the worker cannot be launched
+     */
+    private Process launch(int shard, BlockingQueue<Integer> exited) throws IOException {
+        Files.deleteIfExists(this.shardPath(shard));
+        List<String> command = new ArrayList<>(this.workerCommand);
+        command.add("--shard");
+        command.add(shard + "/" + this.numShards);
+        command.add("--shard-out");
+        command.add(this.shardPath(shard).toString());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(this.logPath(shard).toFile()));
+        Process worker = builder.start();
+        worker.onExit().thenRun(() -> exited.add(shard));
+        return worker;
+    }
+
+    /**
+     * Helper function that reads a shard file, checking it is complete before passing
+     * any of its rows on.
+     *
+     * @param shard    the index of the shard
+     * @param numCases the number of test cases in the base test set
+     * @param sink     receives the row of each of the shard's test cases, in order
+     * @return true if the shard file is complete and covers exactly the shard's test
+     * cases; false otherwise, in which case no row is passed on
+     * @throws IOException if the file exists but cannot be read, or the sink fails
+     */
+    private boolean readShard(int shard, int numCases, RowSink sink) throws IOException {
+        Path path = this.shardPath(shard);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        int start = shardStart(numCases, shard, this.numShards);
+        int end = shardStart(numCases, shard + 1, this.numShards);
+        if (lines.size() != end - start + 1 || !lines.get(lines.size() - 1).equals(END)) {
+            return false;
+        }
+        int[][] rows = new int[end - start][];
+        try {
+            for (int line = 0; line < end - start; line++) {
+                String[] fields = lines.get(line).split("\t", -1);
+                if (fields.length != 2 || Integer.parseInt(fields[0]) != start + line) {
+                    return false;
+                }
+                String[] files = fields[1].isEmpty() ? new String[0]
+                    : fields[1].split(",");
+                rows[line] = new int[files.length];
+                for (int idx = 0; idx < files.length; idx++) {
+                    rows[line][idx] = Integer.parseInt(files[idx]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        for (int line = 0; line < rows.length; line++) {
+            sink.accept(start + line, rows[line]);
+        }
+        return true;
+    }
+
+    /**
+     * Helper function that returns the path to a shard file.
+     *
+     * @param shard the index of the shard
+     * @return the path to the shard file
+     */
+    private Path shardPath(int shard) {
+        return this.workDir.resolve("shard-" + shard + ".txt");
+    }
+
+    /**
+     * Helper function that returns the path to a worker's log.
+     *
+     * @param shard the index of the shard
+     * @return the path to the log
+     */
+    private Path logPath(int shard) {
+        return this.workDir.resolve("shard-" + shard + ".log");
+    }
+
+    /**
+     * Receives the rows read from shard files.
+     */
+    @FunctionalInterface
+    private interface RowSink {
+
+        /**
+         * Receives the row of a test case.
+         *
+         * @param caseIndex the global index of the test case
+         * @param files     the indices of the files caught by the test case
+         * @throws IOException if the row cannot be stored
+         */
+        void accept(int caseIndex, int[] files) throws IOException;
+    }
+}
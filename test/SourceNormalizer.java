@@ -0,0 +1,196 @@
+package main.rice.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stateless class for normalizing Python source code, so that implementations that
+ * differ only in comments and whitespace can be recognized as equivalent. Normalization
+ * never changes the meaning of a program: it unifies line endings, removes comments,
+ * strips trailing whitespace and drops blank lines, but leaves indentation and the
+ * contents of string literals untouched.
+ *
+ * Files are decoded the way Python decodes them: in the encoding named by a PEP 263
+ * coding declaration on one of their first two lines, or in UTF-8 otherwise. Since
+ * removing comments removes the declaration, the encoding is hashed along with the
+ * normalized source, so files that Python decodes differently are never equivalent. A
+ * file that cannot be decoded (or names an encoding unknown to Java) is hashed as raw
+ * bytes, so it is only equivalent to a byte-identical file.
+ */
+public class SourceNormalizer {
+
+    /**
+     * Matches a PEP 263 coding declaration, capturing the name of the encoding.
+     */
+    private static final Pattern CODING = Pattern.compile(
+        "^[ \\t\\f]*#.*?coding[:=][ \\t]*([-\\w.]+)");
+
+    /**
+     * Matches a line that may precede a coding declaration: blank, or a comment.
+     */
+    private static final Pattern BLANK_OR_COMMENT = Pattern.compile("^[ \\t\\f]*(#.*)?$");
+
+    /**
+     * Normalizes Python source code.
+     *
+     * @param source the source code
+     * @return the normalized source code
+     */
+    public static String normalize(String source) {
+        source = source.replace("\r\n", "\n").replace('\r', '\n');
+
+        StringBuilder out = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+        char quote = 0;
+        boolean triple = false;
+        int idx = 0;
+        while (idx < source.length()) {
+            char curr = source.charAt(idx);
+
+            if (quote != 0) {
+                // Inside a string literal: copy verbatim, watching for its end
+                if (curr == '\\' && idx + 1 < source.length()) {
+                    line.append(curr).append(source.charAt(idx + 1));
+                    idx += 2;
+                    continue;
+                }
+                if (curr == quote && (!triple || source.startsWith(tripleOf(quote), idx))) {
+                    int len = triple ? 3 : 1;
+                    line.append(source, idx, idx + len);
+                    idx += len;
+                    quote = 0;
+                    continue;
+                }
+                if (curr == '\n' && !triple) {
+                    // Unterminated single-line string; let Python report the error
+                    quote = 0;
+                } else {
+                    line.append(curr);
+                    idx++;
+                    continue;
+                }
+            }
+
+            if (curr == '\'' || curr == '"') {
+                quote = curr;
+                triple = source.startsWith(tripleOf(curr), idx);
+                int len = triple ? 3 : 1;
+                line.append(source, idx, idx + len);
+                idx += len;
+            } else if (curr == '#') {
+                // Skip the comment, up to (but not including) the end of the line
+                while (idx < source.length() && source.charAt(idx) != '\n') {
+                    idx++;
+                }
+            } else if (curr == '\n') {
+                endLine(out, line);
+                idx++;
+            } else {
+                line.append(curr);
+                idx++;
+            }
+        }
+        endLine(out, line);
+        return out.toString();
+    }
+
+    /**
+     * Reads, decodes and normalizes a Python file, and hashes the result along with the
+     * encoding it was decoded with; or, if it cannot be decoded, hashes its bytes.
+     *
+     * @param path the path to the file
+     * @return the hex-encoded SHA-256 hash of the encoding and normalized source code,
+     * or "raw:" followed by the hex-encoded SHA-256 hash of the file's bytes
+     * @throws IOException if the file cannot be read
+     */
+    public static String normalizedHash(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Path.of(path));
+        try {
+            Charset charset = charsetOf(declaredEncoding(bytes));
+            String source = charset.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+            return ExpectedResultsCache.sha256(charset.name() + "\0" + normalize(source));
+        } catch (CharacterCodingException | IllegalArgumentException e) {
+            // Undecodable, or an encoding Java does not know: only identical bytes match
+            return "raw:" + ExpectedResultsCache.sha256(bytes);
+        }
+    }
+
+    /**
+     * Helper function that finds the encoding of a Python file, as declared by a PEP 263
+     * coding declaration on its first line, or on its second line if the first is blank
+     * or a comment.
+     *
+     * @param bytes the contents of the file
+     * @return the name of the declared encoding, or "UTF-8" if there is none
+     */
+    private static String declaredEncoding(byte[] bytes) {
+        // Declarations are ASCII, which every byte decodes to as itself in ISO-8859-1
+        String head = new String(bytes, 0, Math.min(bytes.length, 1024),
+            StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n|\r|\n", 3);
+        for (int idx = 0; idx < Math.min(2, lines.length); idx++) {
+            Matcher coding = CODING.matcher(lines[idx]);
+            if (coding.find()) {
+                return coding.group(1);
+            }
+            if (!BLANK_OR_COMMENT.matcher(lines[idx]).matches()) {
+                break;
+            }
+        }
+        return "UTF-8";
+    }
+
+    /**
+     * Helper function that looks up the Java charset for a Python encoding name, trying
+     * the spellings in which the two differ (e.g. "latin-1" is "latin1" in Java).
+     *
+     * @param encoding the name of the encoding, as declared in the file
+     * @return the charset
+     * @throws IllegalArgumentException if Java knows no charset by any of the spellings
+     */
+    private static Charset charsetOf(String encoding) {
+        String[] spellings = {encoding, encoding.replace('_', '-'),
+            encoding.replace("-", "").replace("_", "")};
+        for (String spelling : spellings) {
+            if (Charset.isSupported(spelling)) {
+                return Charset.forName(spelling);
+            }
+        }
+        throw new IllegalArgumentException("unknown encoding " + encoding);
+    }
+
+    /**
+     * Helper function that finishes a line outside of any string literal: strips its
+     * trailing whitespace, and appends it to the output unless it is blank.
+     *
+     * @param out  the normalized output so far; mutated
+     * @param line the current line; cleared
+     */
+    private static void endLine(StringBuilder out, StringBuilder line) {
+        int end = line.length();
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0) {
+            out.append(line, 0, end).append('\n');
+        }
+        line.setLength(0);
+    }
+
+    /**
+     * Helper function that returns the triple-quote delimiter for a quote character.
+     *
+     * @param quote the quote character
+     * @return three copies of quote
+     */
+    private static String tripleOf(char quote) {
+        return String.valueOf(quote).repeat(3);
+    }
+}
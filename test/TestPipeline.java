@@ -0,0 +1,628 @@
+package main.rice.test;
+
+import main.rice.concisegen.IncrementalCover;
+import main.rice.concisegen.TestCostModel;
+import main.rice.metrics.Counter;
+import main.rice.metrics.HistogramFamily;
+import main.rice.metrics.MetricsRegistry;
+import main.rice.metrics.ProgressReporter;
+import main.rice.metrics.Timer;
+import main.rice.metrics.WorkUnitEvent;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generates, tests and covers in a single pass, as a pipeline of concurrent stages
+ * connected by bounded queues: a generator, which numbers test cases as it draws them
+ * from a (lazy) source; the reference stage, which executes the reference solution on
+ * each test case; the implementation stage, which executes every implementation on each
+ * test case and determines which ones it catches; and the cover stage, which feeds each
+ * row of results that catches anything to an IncrementalCover. Every stage blocks when its output queue is
+ * full, so a slow stage throttles the ones before it, and test cases in flight are
+ * bounded by the capacity of the queues rather than by the size of the base test set.
+ * The cover stage, however, keeps the row of every test case that catches at least one
+ * implementation (as a bitset), along with the test case itself, so memory still grows
+ * with the number of such test cases. The running cover is published as the detail of
+ * the "test" progress stage, and as a gauge.
+ *
+ * The implementation stage is split into lanes, each of which executes a fixed subset of
+ * the implementations on every test case. A lane takes test cases in batches (of up to
+ * the queue capacity) and runs one implementation over a whole batch before moving on to
+ * the next, so that only about one interpreter per lane is alive at a time, and each
+ * implementation is restarted at most once per batch. A row is complete once every lane
+ * has processed its test case.
+ *
+ * As in ParallelTester, implementations send back fingerprints of their results, and a
+ * test case whose reference execution was abandoned catches nothing. Once every test
+ * case has been covered, the cover is re-optimized with the lazy greedy algorithm, so it
+ * is the same as setCover on the same rows; since rows are numbered in generation order,
+ * it may differ from that of a run which numbers test cases differently.
+ *
+ * Every execution is emitted as a WorkUnitEvent (of a single test case), for Java
+ * Flight Recorder.
+ *
+ * Completed rows can be checkpointed to a CheckpointLog, so that a run that is cut short
+ * can be resumed where it left off.
+ */
+public class TestPipeline {
+
+    /**
+     * The default number of test cases that each queue holds.
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * The default maximum time for a single execution, in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * The item signalling the end of a queue.
+     */
+    private static final Item END = new Item(-1, null);
+
+    /**
+     * Executes the reference solution and the implementations.
+     */
+    private final AExecutor executor;
+
+    /**
+     * The identifiers of the implementations, in the executor's order.
+     */
+    private final List<String> impls;
+
+    /**
+     * The number of threads executing code at once, across both execution stages.
+     */
+    private int parallelism;
+
+    /**
+     * The number of test cases that each queue holds.
+     */
+    private int queueCapacity;
+
+    /**
+     * The maximum time for a single execution, in milliseconds.
+     */
+    private long timeoutMillis;
+
+    /**
+     * The timeout for an implementation is this multiple of the reference solution's
+     * execution time on the same test case, or 0 to always use the fixed timeout.
+     */
+    private double timeoutMultiple;
+
+    /**
+     * The minimum timeout for an implementation, in milliseconds, when timeouts are
+     * derived from the reference solution.
+     */
+    private long timeoutFloorMillis;
+
+    /**
+     * The log that completed rows are checkpointed to, or null if there is none.
+     */
+    private CheckpointLog checkpoint;
+
+    /**
+     * Reports the progress of the run.
+     */
+    private ProgressReporter progress;
+
+    /**
+     * The number of test cases the source is expected to generate, or -1 if unknown.
+     */
+    private long plannedCases;
+
+    /**
+     * The registry that the run is measured in.
+     */
+    private MetricsRegistry metrics;
+
+    /**
+     * Counts the executions, of the reference solution and of implementations alike.
+     */
+    private Counter executions;
+
+    /**
+     * Counts the executions killed for exceeding their timeout.
+     */
+    private Counter timeouts;
+
+    /**
+     * Counts the executions abandoned because their interpreter crashed.
+     */
+    private Counter crashes;
+
+    /**
+     * Measures the time taken by each execution.
+     */
+    private Timer executionTimer;
+
+    /**
+     * Records the distribution of execution times of each implementation.
+     */
+    private HistogramFamily latencyByImpl;
+
+    /**
+     * Records the distribution of execution times on test cases of each size (the
+     * number of Python objects in their arguments), in power-of-two ranges.
+     */
+    private HistogramFamily latencyBySize;
+
+    /**
+     * Constructor for a TestPipeline; by default, runs one thread per available
+     * processor.
+     *
+     * @param executor executes the reference solution and the implementations
+     */
+    public TestPipeline(AExecutor executor) {
+        this.executor = executor;
+        this.impls = executor.getImpls();
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        this.setMetrics(MetricsRegistry.DISABLED);
+        this.setProgress(ProgressReporter.DISABLED, -1);
+    }
+
+    /**
+     * Sets the number of threads executing code at once, across both execution stages,
+     * which also bounds the number of interpreters kept alive.
+     *
+     * @param parallelism the number of threads executing code at once
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of test cases that each queue holds.
+     *
+     * @param queueCapacity the capacity of each queue
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the maximum time for a single execution.
+     *
+     * @param timeoutMillis the maximum time for a single execution, in milliseconds
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Derives the timeout for each execution of an implementation from the execution
+     * time of the reference solution on the same test case, as in ParallelTester.
+     *
+     * @param multiple    the timeout as a multiple of the reference execution time
+     * @param floorMillis the minimum timeout, in milliseconds
+     */
+    public void setAdaptiveTimeout(double multiple, long floorMillis) {
+        this.timeoutMultiple = multiple;
+        this.timeoutFloorMillis = floorMillis;
+    }
+
+    /**
+     * Sets the log that completed rows are checkpointed to. Rows already in the log are
+     * not executed again: their test cases are drawn from the source (which must
+     * therefore generate the same test cases in the same order as the run that wrote
+     * the log) but skipped.
+     *
+     * @param checkpoint the checkpoint log, which the caller remains responsible for
+     *                   closing
+     */
+    public void setCheckpoint(CheckpointLog checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets the registry that the run is measured in: the same execution metrics as
+     * ParallelTester's, plus the time taken by the whole run, the rows covered (and
+     * those skipped because they were checkpointed), and the set cover run at the end.
+     *
+     * @param metrics the metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.executions = metrics.counter("feat_tester_executions_total",
+            "Executions of the reference solution and implementations");
+        this.timeouts = metrics.counter("feat_tester_timeouts_total",
+            "Executions killed for exceeding their timeout");
+        this.crashes = metrics.counter("feat_tester_crashes_total",
+            "Executions abandoned because their interpreter crashed");
+        this.executionTimer = metrics.timer("feat_tester_execution_seconds",
+            "Time taken by each execution");
+        this.latencyByImpl = metrics.histograms("feat_tester_latency_seconds",
+            "Execution times of each implementation", "impl");
+        this.latencyBySize = metrics.histograms("feat_tester_latency_by_size_seconds",
+            "Execution times by number of objects in the arguments", "size");
+    }
+
+    /**
+     * Sets the reporter that the progress of the run is reported to, as a "test" stage
+     * that counts the rows of results covered (including those recovered from the
+     * checkpoint). Since the source is lazy, the total number of rows must be given
+     * here, e.g. the size of the base test set the source iterates over.
+     *
+     * @param progress     the progress reporter
+     * @param plannedCases the number of test cases the source will generate, or -1 if
+     *                     unknown
+     */
+    public void setProgress(ProgressReporter progress, long plannedCases) {
+        this.progress = progress;
+        this.plannedCases = plannedCases;
+    }
+
+    /**
+     * Computes a key that identifies everything that determines the results of a run,
+     * for use as the key of a CheckpointLog: the given key of the source, the function
+     * name, and the identifiers and sources of the reference solution and of every
+     * implementation.
+     *
+     * @param sourceKey a key identifying the test cases the source generates, e.g. the
+     *                  contents of the config file and the seed
+     * @return the key of the run
+     * @throws IOException if a source cannot be read
+     */
+    public String runKey(String sourceKey) throws IOException {
+        StringBuilder key = new StringBuilder();
+        key.append(sourceKey).append('\0').append(this.executor.getFuncName()).append('\0');
+        String reference = this.executor.getReference();
+        key.append(reference).append('\0').append(this.executor.getSource(reference));
+        for (String impl : this.impls) {
+            key.append('\0').append(impl).append('\0').append(this.executor.getSource(impl));
+        }
+        return ExpectedResultsCache.sha256(key.toString());
+    }
+
+    /**
+     * Runs the pipeline until the source is exhausted and every test case has been
+     * covered.
+     *
+     * @param source the test cases to generate, in order; only used by one thread
+     * @return a concise set of test cases that catches every implementation caught by
+     * some generated test case
+     * @throws IOException          if a stage fails, e.g. because an implementation
+     *                              cannot be started
+     * @throws InterruptedException if interrupted while waiting for the stages
+     */
+    public Set<TestCase> run(Iterator<TestCase> source) throws IOException, InterruptedException {
+        // The reference solution runs once per test case, and the implementations many
+        // times, so most of the threads go to the lanes
+        int numRefThreads = Math.max(1, this.parallelism / 4);
+        int numLanes = Math.max(1, Math.min(this.parallelism - numRefThreads, this.impls.size()));
+        this.executor.setParallelism(numRefThreads + numLanes);
+
+        BlockingQueue<Item> generated = new ArrayBlockingQueue<>(this.queueCapacity);
+        List<BlockingQueue<Item>> lanes = new ArrayList<>();
+        for (int lane = 0; lane < numLanes; lane++) {
+            lanes.add(new ArrayBlockingQueue<>(this.queueCapacity));
+        }
+        BlockingQueue<Item> rows = new ArrayBlockingQueue<>(this.queueCapacity);
+        AtomicInteger liveRefThreads = new AtomicInteger(numRefThreads);
+        AtomicInteger liveLanes = new AtomicInteger(numLanes);
+
+        ExecutorService threads = Executors.newFixedThreadPool(1 + numRefThreads + numLanes);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        SortedMap<Integer, Set<Integer>> completed = this.checkpoint == null ? new TreeMap<>()
+            : this.checkpoint.getCompleted();
+        Map<Integer, TestCase> catchers = new ConcurrentHashMap<>();
+        Timer runTimer = this.metrics.timer("feat_pipeline_seconds",
+            "Time taken by pipelined runs");
+        Counter rowsCovered = this.metrics.counter("feat_pipeline_rows_total",
+            "Rows of results fed to the cover stage");
+        Counter executed = this.executions;
+        this.metrics.gauge("feat_pipeline_executions_per_second",
+            "Executions per second of pipelined runs",
+            () -> MetricsRegistry.ratio(executed.get(), runTimer.getTotalSeconds()));
+        long start = runTimer.start();
+        try {
+            submit(threads, failure, () -> {
+                for (int caseIndex = 0; source.hasNext(); caseIndex++) {
+                    TestCase test = source.next();
+                    Set<Integer> files = completed.get(caseIndex);
+                    if (files == null) {
+                        generated.put(new Item(caseIndex, test));
+                    } else if (!files.isEmpty()) {
+                        // Checkpointed, so only the test case itself is needed
+                        catchers.put(caseIndex, test);
+                    }
+                }
+                for (int thread = 0; thread < numRefThreads; thread++) {
+                    generated.put(END);
+                }
+            });
+            for (int thread = 0; thread < numRefThreads; thread++) {
+                submit(threads, failure, () -> {
+                    for (Item item = generated.take(); item != END; item = generated.take()) {
+                        this.runReference(item);
+                        item.remainingLanes = new AtomicInteger(numLanes);
+                        for (BlockingQueue<Item> lane : lanes) {
+                            lane.put(item);
+                        }
+                    }
+                    if (liveRefThreads.decrementAndGet() == 0) {
+                        for (BlockingQueue<Item> lane : lanes) {
+                            lane.put(END);
+                        }
+                    }
+                });
+            }
+            for (int lane = 0; lane < numLanes; lane++) {
+                BlockingQueue<Item> queue = lanes.get(lane);
+                int firstImpl = lane;
+                submit(threads, failure, () -> {
+                    List<Item> batch = new ArrayList<>();
+                    for (boolean ended = false; !ended; ) {
+                        batch.clear();
+                        while (batch.size() < this.queueCapacity) {
+                            Item item = queue.take();
+                            if (item == END) {
+                                ended = true;
+                                break;
+                            }
+                            batch.add(item);
+                        }
+                        for (int implIndex = firstImpl; implIndex < this.impls.size();
+                             implIndex += numLanes) {
+                            for (Item item : batch) {
+                                this.runImpl(implIndex, item);
+                            }
+                        }
+                        for (Item item : batch) {
+                            if (item.remainingLanes.decrementAndGet() == 0) {
+                                rows.put(item);
+                            }
+                        }
+                    }
+                    if (liveLanes.decrementAndGet() == 0) {
+                        rows.put(END);
+                    }
+                });
+            }
+
+            // The cover stage runs on this thread
+            IncrementalCover cover = new IncrementalCover(this.impls.size());
+            for (Map.Entry<Integer, Set<Integer>> row : completed.entrySet()) {
+                if (!row.getValue().isEmpty()) {
+                    cover.accept(row.getKey(), row.getValue());
+                }
+            }
+            this.metrics.counter("feat_pipeline_checkpointed_rows_total",
+                "Rows recovered from the checkpoint rather than executed").add(completed.size());
+            this.metrics.gauge("feat_pipeline_partial_cover_size",
+                "Test cases in the running cover of pipelined runs",
+                () -> cover.getPartialCover().size());
+            ProgressReporter.Stage stage = this.progress.stage("test", this.plannedCases);
+            stage.setDetail(() -> "cover " + cover.getPartialCover().size() + " tests catching "
+                + cover.numCaught() + " files");
+            stage.add(completed.size());
+            while (true) {
+                Item item = rows.poll(100, TimeUnit.MILLISECONDS);
+                if (failure.get() != null) {
+                    Exception cause = failure.get();
+                    if (cause instanceof IOException ioException) {
+                        throw ioException;
+                    }
+                    throw new IOException(cause);
+                }
+                if (item == END) {
+                    stage.finish();
+                    break;
+                }
+                if (item != null) {
+                    if (!item.caught.isEmpty()) {
+                        // A row that catches nothing can never be part of the cover
+                        cover.accept(item.caseIndex, item.caught);
+                    }
+                    rowsCovered.inc();
+                    stage.inc();
+                    if (this.checkpoint != null) {
+                        this.checkpoint.append(item.caseIndex, item.caught);
+                    }
+                    if (!item.caught.isEmpty()) {
+                        catchers.put(item.caseIndex, item.test);
+                    }
+                }
+            }
+
+            Set<TestCase> tests = new HashSet<>();
+            for (int caseIndex : cover.finish(true, this.metrics)) {
+                tests.add(catchers.get(caseIndex));
+            }
+            return tests;
+        } finally {
+            runTimer.stop(start);
+            threads.shutdownNow();
+            this.executor.close();
+            if (this.checkpoint != null) {
+                // Keep every row completed so far, even if the run failed
+                this.checkpoint.flush();
+            }
+        }
+    }
+
+    /**
+     * Helper function that executes the reference solution on the test case of an item,
+     * recording the fingerprint of its output (or null if the execution was abandoned)
+     * and its execution time.
+     *
+     * @param item the item; mutated
+     * @throws IOException if the reference solution cannot be started
+     */
+    private void runReference(Item item) throws IOException {
+        WorkUnitEvent event = new WorkUnitEvent();
+        event.begin();
+        ExecutionResult result = this.executor.execute(this.executor.getReference(),
+            item.test, this.timeoutMillis, false);
+        this.recordExecution(this.executor.getReference(), item.test, result);
+        commit(event, this.executor.getReference(), true, item.caseIndex, result);
+        item.expected = result.isAbandoned() ? null : PythonWorker.fingerprint(result.getOutput());
+        item.referenceNanos = result.getNanos();
+    }
+
+    /**
+     * Helper function that executes an implementation on the test case of an item, and
+     * records whether it was caught.
+     *
+     * @param implIndex the index of the implementation
+     * @param item      the item; its set of caught implementations is mutated
+     * @throws IOException if the implementation cannot be started
+     */
+    private void runImpl(int implIndex, Item item) throws IOException {
+        if (item.expected == null) {
+            // The reference solution itself failed, so there is nothing to compare with
+            return;
+        }
+        long timeout = this.timeoutMillis;
+        if (this.timeoutMultiple > 0) {
+            long adaptive = (long) Math.ceil(this.timeoutMultiple * item.referenceNanos
+                / 1_000_000.0);
+            timeout = Math.max(this.timeoutFloorMillis, adaptive);
+        }
+        WorkUnitEvent event = new WorkUnitEvent();
+        event.begin();
+        ExecutionResult result = this.executor.execute(this.impls.get(implIndex), item.test,
+            timeout, true);
+        this.recordExecution(this.impls.get(implIndex), item.test, result);
+        commit(event, this.impls.get(implIndex), false, item.caseIndex, result);
+        if (result.isAbandoned() || !item.expected.equals(result.getOutput())) {
+            item.caught.add(implIndex);
+        }
+    }
+
+    /**
+     * Helper function that records the metrics of a single execution.
+     *
+     * @param id     the identifier of the implementation executed
+     * @param test   the test case
+     * @param result the result of the execution
+     */
+    private void recordExecution(String id, TestCase test, ExecutionResult result) {
+        this.executions.inc();
+        this.executionTimer.record(result.getNanos());
+        if (this.metrics.isEnabled()) {
+            long size = (long) TestCostModel.estimateCost(test);
+            this.latencyByImpl.get(id).record(result.getNanos());
+            this.latencyBySize.get(HistogramFamily.powerOfTwoRange(size)).record(result.getNanos());
+        }
+        if (result.isTimedOut()) {
+            this.timeouts.inc();
+        } else if (result.isAbandoned()) {
+            this.crashes.inc();
+        }
+    }
+
+    /**
+     * Helper function that ends the WorkUnitEvent of a single execution, and commits it
+     * if it is recorded.
+     *
+     * @param event     the event
+     * @param impl      the identifier of the implementation executed
+     * @param reference whether the implementation is the reference solution
+     * @param caseIndex the index of the test case
+     * @param result    the result of the execution
+     */
+    private static void commit(WorkUnitEvent event, String impl, boolean reference,
+                               int caseIndex, ExecutionResult result) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.impl = impl;
+            event.reference = reference;
+            event.firstCase = caseIndex;
+            event.numCases = 1;
+            event.abandoned = result.isAbandoned() ? 1 : 0;
+            event.commit();
+        }
+    }
+
+    /**
+     * Helper function that runs a stage on a thread, recording the first failure of any
+     * stage (including being interrupted).
+     *
+     * @param threads the threads to run on
+     * @param failure the first failure of any stage; set if the stage fails first
+     * @param stage   the stage
+     */
+    private static void submit(ExecutorService threads, AtomicReference<Exception> failure,
+                               Stage stage) {
+        threads.execute(() -> {
+            try {
+                stage.run();
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * A stage of the pipeline, run on its own thread until its input is exhausted.
+     */
+    @FunctionalInterface
+    private interface Stage {
+
+        /**
+         * Runs the stage.
+         *
+         * @throws Exception if the stage fails or is interrupted
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * A test case in flight, along with everything the stages have learned about it.
+     */
+    private static class Item {
+
+        /**
+         * The index of the test case, in generation order.
+         */
+        private final int caseIndex;
+
+        /**
+         * The test case.
+         */
+        private final TestCase test;
+
+        /**
+         * The fingerprint of the reference solution's output, or null if its execution
+         * was abandoned; set by the reference stage.
+         */
+        private volatile String expected;
+
+        /**
+         * The reference solution's execution time, in nanoseconds; set by the reference
+         * stage.
+         */
+        private volatile long referenceNanos;
+
+        /**
+         * The number of lanes yet to process this item; set by the reference stage.
+         */
+        private volatile AtomicInteger remainingLanes;
+
+        /**
+         * The indices of the implementations caught by the test case.
+         */
+        private final Set<Integer> caught;
+
+        /**
+         * Constructor for an Item.
+         *
+         * @param caseIndex the index of the test case
+         * @param test      the test case
+         */
+        private Item(int caseIndex, TestCase test) {
+            this.caseIndex = caseIndex;
+            this.test = test;
+            this.caught = ConcurrentHashMap.newKeySet();
+        }
+    }
+}